@@ -1,9 +1,12 @@
 package graph;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.function.IntConsumer;
 
 /**
  * candidate for concurrent graph data structure
+ * neighbor lists are kept sorted, so duplicates are found and hasEdge answers with a binary search
  */
 public class AdjacencyList extends Graph {
     private ArrayList<Integer>[] al;
@@ -20,12 +23,14 @@ public class AdjacencyList extends Graph {
     }
 
     /**
-     * create new adjacency lists copying lists from parameter
-     * unsafe; no integrity checks done
+     * create new adjacency lists copying lists from parameter, lists are sorted in place
+     * unsafe; no other integrity checks done
      */
     public AdjacencyList(ArrayList<Integer>[] lists) {
         super(lists.length);
         this.al = lists;
+        for (ArrayList<Integer> list : lists)
+            list.sort(null);
     }
 
     @Override
@@ -33,6 +38,18 @@ public class AdjacencyList extends Graph {
         return al[node];
     }
 
+    @Override
+    public int getDegree(int node) {
+        return al[node].size();
+    }
+
+    @Override
+    public void forEachNeighbor(int node, IntConsumer action) {
+        ArrayList<Integer> neighbors = al[node];
+        for (int i = 0, size = neighbors.size(); i < size; i++)
+            action.accept(neighbors.get(i));
+    }
+
     @Override
     public boolean addEdge(int nodeFrom, int nodeTo) {
         if(nodeFrom < 0 || nodeFrom >= n)
@@ -40,19 +57,29 @@ public class AdjacencyList extends Graph {
         if(nodeTo < 0 || nodeTo >= n)
             throw new IllegalArgumentException(String.format("cannot add edge: nodeTo out of bounds (%d)", nodeTo));
 
-        if(al[nodeFrom].contains(nodeTo))
-            return false;
-        else
-            al[nodeFrom].add(nodeTo);
+        // lists are kept sorted; neighbors given in ascending order are appended without searching
+        ArrayList<Integer> neighbors = al[nodeFrom];
+        int size = neighbors.size();
+        if (size == 0 || neighbors.get(size - 1) < nodeTo)
+            neighbors.add(nodeTo);
+        else {
+            int pos = Collections.binarySearch(neighbors, nodeTo);
+            if (pos >= 0)
+                return false;
+            neighbors.add(-pos - 1, nodeTo);
+        }
         e++;
+        hubs = null;
         return true;
     }
 
     @Override
     public boolean hasEdge(int nodeFrom, int nodeTo) {
-        if(hasNode(nodeFrom) && hasNode(nodeTo))
-            return al[nodeFrom].contains(nodeTo);
-        else
+        if(hasNode(nodeFrom) && hasNode(nodeTo)) {
+            if (hubs != null && hubs.isHub(nodeFrom))
+                return hubs.hasEdge(nodeFrom, nodeTo);
+            return Collections.binarySearch(al[nodeFrom], nodeTo) >= 0;
+        } else
             throw new IllegalArgumentException(String.format("cannot add edge: %d-node graph %s does not contain node %d or %d", getNodeCount(), getName(), nodeFrom, nodeTo));
     }
 
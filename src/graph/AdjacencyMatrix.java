@@ -1,9 +1,11 @@
 package graph;
 
 import java.util.ArrayList;
+import java.util.function.IntConsumer;
 
 public class AdjacencyMatrix extends Graph {
     private boolean[][] mat;
+    private int[] degrees;
 
     /**
      * create new empty graph with n nodes and 0 edges
@@ -11,6 +13,7 @@ public class AdjacencyMatrix extends Graph {
     public AdjacencyMatrix(int n) {
         super(n);
         mat = new boolean[n][n];
+        degrees = new int[n];
     }
 
     public AdjacencyMatrix(double[][] matrix) {
@@ -24,17 +27,37 @@ public class AdjacencyMatrix extends Graph {
     public AdjacencyMatrix(boolean[][] matrix) {
         super(matrix.length);
         this.mat = matrix;
+        this.degrees = new int[n];
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < n; j++)
+                if (mat[i][j]) {
+                    degrees[i]++;
+                    e++;
+                }
     }
 
     @Override
     public ArrayList<Integer> getNeighbors(int node) {
-        ArrayList<Integer> l = new ArrayList<>(2*e/n);
+        ArrayList<Integer> l = new ArrayList<>(degrees[node]);
         for(int i = 0; i < n; i++)
             if (mat[node][i])
                 l.add(i);
         return l;
     }
 
+    @Override
+    public int getDegree(int node) {
+        return degrees[node];
+    }
+
+    @Override
+    public void forEachNeighbor(int node, IntConsumer action) {
+        boolean[] row = mat[node];
+        for(int i = 0; i < n; i++)
+            if (row[i])
+                action.accept(i);
+    }
+
     @Override
     public boolean addEdge(int nodeFrom, int nodeTo) {
         if(!hasNode(nodeFrom))
@@ -44,6 +67,7 @@ public class AdjacencyMatrix extends Graph {
 
         if(mat[nodeFrom][nodeTo])
             return false;
+        degrees[nodeFrom]++;
         e++;
         return (mat[nodeFrom][nodeTo] = true);
     }
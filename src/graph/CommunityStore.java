@@ -0,0 +1,376 @@
+package graph;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * the communities of a merge run in a few large arrays instead of an object and an array each, addressed by int handles
+ * the nodes of community h are pool[offsets[h]] to pool[offsets[h] + size - 1] in ascending order; size, eigenvalue,
+ * lock state and, if kept, fiedler vector are stored by handle in pages that never move
+ * merges append, handles are never reused; once retired communities take more of the pool than live ones, the live
+ * ones are copied to a new pool by a background thread. InducedSubgraph views of a handle are created on demand
+ */
+public class CommunityStore {
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE = 1 << PAGE_BITS;
+    private static final int[] EMPTY = new int[0];
+    /** don't compact for less than this many dead entries in the pool */
+    private static final long MIN_GARBAGE = 1 << 20;
+    static final int UNLOCKED = 0, HELD = 1, RETIRED = 2;
+
+    /** replaced as a whole when it grows or is compacted; the entries of existing handles are never changed */
+    private static final class Arena {
+        final int[] pool;
+        final int[] offsets;    // -1 once the nodes of a retired community have been dropped
+        int top;
+
+        Arena(int[] pool, int[] offsets, int top) {
+            this.pool = pool;
+            this.offsets = offsets;
+            this.top = top;
+        }
+    }
+
+    private static final class Page {
+        final int[] sizes = new int[PAGE];
+        final double[] evs = new double[PAGE];
+        final AtomicIntegerArray states = new AtomicIntegerArray(PAGE);
+        volatile float[][] fiedlers;
+    }
+
+    private final Graph main;
+    private volatile Arena arena = new Arena(new int[1024], new int[64], 0);
+    private volatile Page[] pages = new Page[0];
+    private volatile int count;
+    private final AtomicInteger live = new AtomicInteger();
+    private final AtomicLong liveNodes = new AtomicLong();
+    private final AtomicLong deadNodes = new AtomicLong();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    // held for reading by holdNodes, for writing by compaction
+    private final ReentrantReadWriteLock nodesHeld = new ReentrantReadWriteLock();
+
+    /**
+     * @param main graph all communities are subgraphs of
+     */
+    public CommunityStore(Graph main) {
+        this.main = main;
+    }
+
+    public Graph getGraph() {
+        return main;
+    }
+
+    /**
+     * @param nodes original ids of the community's nodes in any order, sorted in place
+     * @param ev eigenvalue of the community, -1 if unknown
+     * @return handle of the new community, unlocked
+     */
+    public int add(int[] nodes, double ev) {
+        Arrays.sort(nodes);
+        int size = 0;
+        for (int i = 0; i < nodes.length; i++)
+            if (i == 0 || nodes[i] != nodes[i - 1])
+                nodes[size++] = nodes[i];
+        if (size > 0 && (nodes[0] < 0 || nodes[size - 1] >= main.getNodeCount()))
+            throw new IllegalArgumentException(String.format("cannot add community: graph %s does not have node with id %d", main.getName(), nodes[0] < 0 ? nodes[0] : nodes[size - 1]));
+        return append(nodes, size, ev, null, UNLOCKED);
+    }
+
+    /**
+     * move s into the store: its nodes, eigenvalue, fiedler vector and lock state are copied, and s becomes a view
+     * of the new handle; s must not be in a hash based collection, its hash code changes
+     * @return handle of s
+     */
+    public int adopt(InducedSubgraph s) {
+        if (s.store != null)
+            throw new IllegalArgumentException("subgraph is in a community store already");
+        if (s.getOriginalGraph() != main)
+            throw new IllegalArgumentException("subgraph of another graph than the store's");
+        int[] nodes = s.getSortedNodes();
+        int handle = append(nodes, nodes.length, s.getKnownEigenvalue(), s.getSortedFiedlerVector(), s.getOwnLockState());
+        s.store = this;
+        s.handle = handle;
+        return handle;
+    }
+
+    private synchronized int append(int[] nodes, int size, double ev, float[] fiedler, int state) {
+        int handle = count;
+        Arena a = arena;
+        if (a.pool.length - a.top < size || handle == a.offsets.length)
+            a = grow(a, size);
+        System.arraycopy(nodes, 0, a.pool, a.top, size);
+        a.offsets[handle] = a.top;
+        a.top += size;
+
+        Page[] p = pages;
+        if (handle >> PAGE_BITS == p.length) {
+            p = Arrays.copyOf(p, p.length + 1);
+            p[p.length - 1] = new Page();
+        }
+        Page page = p[handle >> PAGE_BITS];
+        int i = handle & (PAGE - 1);
+        page.sizes[i] = size;
+        page.evs[i] = ev;
+        page.states.set(i, state);
+        if (fiedler != null)
+            fiedlers(page)[i] = fiedler;
+
+        live.incrementAndGet();
+        liveNodes.addAndGet(size);
+        pages = p;
+        arena = a;
+        count = handle + 1;
+        return handle;
+    }
+
+    private Arena grow(Arena a, int size) {
+        long capacity = a.pool.length;
+        while (capacity - a.top < size)
+            capacity *= 2;
+        if (a.top + (long) size > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("community store is full, " + a.top + " nodes");
+        int[] pool = a.pool.length == capacity ? a.pool : Arrays.copyOf(a.pool, (int) Math.min(capacity, Integer.MAX_VALUE - 8));
+        int[] offsets = count == a.offsets.length ? Arrays.copyOf(a.offsets, 2 * a.offsets.length) : a.offsets;
+        return new Arena(pool, offsets, a.top);
+    }
+
+    private static float[][] fiedlers(Page page) {
+        float[][] f = page.fiedlers;
+        if (f == null)
+            page.fiedlers = f = new float[PAGE][];
+        return f;
+    }
+
+    private Page page(int handle) {
+        if (handle < 0 || handle >= count)
+            throw new IllegalArgumentException("no community with handle " + handle);
+        return pages[handle >> PAGE_BITS];
+    }
+
+    /**
+     * @return new subgraph of the community's nodes, in ascending order; a retired community may have lost its nodes
+     */
+    public InducedSubgraph view(int handle) {
+        return new InducedSubgraph(main, getNodes(handle), this, handle);
+    }
+
+    /**
+     * @return copy of the community's nodes in ascending order; empty if it was retired and its nodes were dropped
+     */
+    public int[] getNodes(int handle) {
+        Page page = page(handle);
+        Arena a = arena;
+        int offset = a.offsets[handle];
+        return offset < 0 ? EMPTY : Arrays.copyOfRange(a.pool, offset, offset + page.sizes[handle & (PAGE - 1)]);
+    }
+
+    /**
+     * keep compaction from dropping the nodes of communities retired from now on, until releaseNodes by the same
+     * thread; for readers that may still need them, compactions meanwhile wait
+     */
+    public void holdNodes() {
+        nodesHeld.readLock().lock();
+    }
+
+    public void releaseNodes() {
+        nodesHeld.readLock().unlock();
+    }
+
+    /**
+     * @return number of handles handed out so far, live or retired
+     */
+    public int getHandleCount() {
+        return count;
+    }
+
+    /**
+     * @return number of communities that are not retired
+     */
+    public int getCommunityCount() {
+        return live.get();
+    }
+
+    public int getNodeCount(int handle) {
+        return page(handle).sizes[handle & (PAGE - 1)];
+    }
+
+    /**
+     * @return eigenvalue if it is known, -1 otherwise
+     */
+    public double getEigenvalue(int handle) {
+        return page(handle).evs[handle & (PAGE - 1)];
+    }
+
+    /** set by the view computing it */
+    void setEigenvalue(int handle, double ev) {
+        page(handle).evs[handle & (PAGE - 1)] = ev;
+    }
+
+    /** @return fiedler vector by position in the sorted nodes, null if none was kept */
+    float[] getFiedlerVector(int handle) {
+        float[][] f = page(handle).fiedlers;
+        return f == null ? null : f[handle & (PAGE - 1)];
+    }
+
+    synchronized void setFiedlerVector(int handle, float[] fiedler) {
+        fiedlers(page(handle))[handle & (PAGE - 1)] = fiedler;
+    }
+
+    public boolean tryLock(int handle) {
+        AtomicIntegerArray states = page(handle).states;
+        int i = handle & (PAGE - 1);
+        return states.get(i) == UNLOCKED && states.compareAndSet(i, UNLOCKED, HELD);
+    }
+
+    /**
+     * does nothing if the community has been retired while locked
+     */
+    public void unlock(int handle) {
+        AtomicIntegerArray states = page(handle).states;
+        assert states.get(handle & (PAGE - 1)) != UNLOCKED : "attempt to unlock unlocked community";
+        states.compareAndSet(handle & (PAGE - 1), HELD, UNLOCKED);
+    }
+
+    public boolean isLocked(int handle) {
+        return page(handle).states.get(handle & (PAGE - 1)) != UNLOCKED;
+    }
+
+    public boolean isRetired(int handle) {
+        return page(handle).states.get(handle & (PAGE - 1)) == RETIRED;
+    }
+
+    /**
+     * mark the community, which the caller has locked, as replaced by a merge; its nodes are dropped by the next
+     * compaction, which is started here if retired communities take more space than live ones
+     */
+    public void retire(int handle) {
+        Page page = page(handle);
+        int i = handle & (PAGE - 1);
+        assert page.states.get(i) == HELD : "attempt to retire community without holding its lock";
+        page.states.set(i, RETIRED);
+        float[][] f = page.fiedlers;
+        if (f != null)
+            f[i] = null;
+        live.decrementAndGet();
+        liveNodes.addAndGet(-page.sizes[i]);
+        long dead = deadNodes.addAndGet(page.sizes[i]);
+
+        if (dead > MIN_GARBAGE && dead > liveNodes.get() && compacting.compareAndSet(false, true)) {
+            Thread compactor = new Thread(() -> {
+                try {
+                    compact();
+                } finally {
+                    compacting.set(false);
+                }
+            }, "community store compaction");
+            compactor.setDaemon(true);
+            compactor.start();
+        }
+    }
+
+    /**
+     * copy the nodes of live communities to a new pool; blocks adding communities meanwhile, not reading them
+     * waits for holders of the nodes first, without blocking adding
+     */
+    public void compact() {
+        nodesHeld.writeLock().lock();
+        try {
+            compactNodes();
+        } finally {
+            nodesHeld.writeLock().unlock();
+        }
+    }
+
+    private synchronized void compactNodes() {
+        Arena a = arena;
+        int handles = count;
+        long keep = 0;
+        for (int h = 0; h < handles; h++)
+            if (a.offsets[h] >= 0 && !isRetired(h))
+                keep += getNodeCount(h);
+
+        int[] pool = new int[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(1024, keep + keep / 2))];
+        int[] offsets = new int[a.offsets.length];
+        int top = 0;
+        long dropped = 0;
+        for (int h = 0; h < handles; h++) {
+            int size = getNodeCount(h);
+            // communities retired from here on are copied and left for the next compaction
+            if (a.offsets[h] < 0 || isRetired(h)) {
+                if (a.offsets[h] >= 0)
+                    dropped += size;
+                offsets[h] = -1;
+                continue;
+            }
+            System.arraycopy(a.pool, a.offsets[h], pool, top, size);
+            offsets[h] = top;
+            top += size;
+        }
+        arena = new Arena(pool, offsets, top);
+        deadNodes.addAndGet(-dropped);
+    }
+
+    /**
+     * @return number of entries of the pool in use, including those of retired communities not compacted yet
+     */
+    public long getPoolSize() {
+        return arena.top;
+    }
+
+    /**
+     * @return view of the live communities in order of their handles, i.e. in order of adding;
+     *         iterating creates a subgraph per community
+     */
+    public Collection<InducedSubgraph> communities() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<InducedSubgraph> iterator() {
+                return new Iterator<>() {
+                    private final int end = count;
+                    private int next = advance(0);
+
+                    private int advance(int from) {
+                        while (from < end && isRetired(from))
+                            from++;
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < end;
+                    }
+
+                    @Override
+                    public InducedSubgraph next() {
+                        if (next >= end)
+                            throw new NoSuchElementException();
+                        InducedSubgraph view = view(next);
+                        next = advance(next + 1);
+                        return view;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return live.get();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof InducedSubgraph))
+                    return false;
+                InducedSubgraph s = (InducedSubgraph) o;
+                return s.store == CommunityStore.this && !isRetired(s.handle);
+            }
+        };
+    }
+}
@@ -0,0 +1,161 @@
+package graph;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * compressed sparse row layout: neighbors of node i are targets[offsets[i]] ... targets[offsets[i+1] - 1]
+ * uses two int arrays for the whole graph instead of one boxed list per node
+ * edges can only be added in order of nodeFrom (as done when reading files), rows that have been left are final
+ * every row is kept sorted, so duplicates are found and hasEdge answers with a binary search
+ */
+public class CompressedSparseRow extends Graph {
+    private int[] offsets;
+    private int[] targets;
+    private int lastRow;
+
+    /**
+     * create empty graph with n nodes and 0 edges
+     */
+    public CompressedSparseRow(int n) {
+        this(n, 16);
+    }
+
+    /**
+     * create empty graph with n nodes and 0 edges
+     * @param edgeCapacity number of (directed) edges to reserve space for
+     */
+    public CompressedSparseRow(int n, int edgeCapacity) {
+        super(n);
+        offsets = new int[n + 1];
+        targets = new int[Math.max(edgeCapacity, 1)];
+        lastRow = 0;
+    }
+
+    /**
+     * create graph directly from csr arrays, rows that are not sorted yet are sorted in place
+     * unsafe; no other integrity checks done, rows must not contain duplicates
+     */
+    public CompressedSparseRow(int[] offsets, int[] targets) {
+        super(offsets.length - 1);
+        this.offsets = offsets;
+        this.targets = targets;
+        this.e = offsets[n];
+        this.lastRow = n;
+        for (int i = 0; i < n; i++)
+            sortRow(offsets[i], offsets[i + 1]);
+    }
+
+    private void sortRow(int start, int end) {
+        for (int j = start + 1; j < end; j++)
+            if (targets[j - 1] > targets[j]) {
+                Arrays.sort(targets, start, end);
+                return;
+            }
+    }
+
+    /**
+     * @return start index of neighbors of node in targets
+     */
+    private int start(int node) {
+        return node <= lastRow ? offsets[node] : e;
+    }
+
+    /**
+     * @return end index (exclusive) of neighbors of node in targets
+     */
+    private int end(int node) {
+        return node < lastRow ? offsets[node + 1] : e;
+    }
+
+    /**
+     * @return read only view of neighbors of node
+     */
+    @Override
+    public List<Integer> getNeighbors(int node) {
+        if (!hasNode(node))
+            throw new IllegalArgumentException(String.format("cannot get neighbors: %d-node graph %s does not contain node %d", getNodeCount(), getName(), node));
+        final int start = start(node);
+        final int size = end(node) - start;
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                if (index < 0 || index >= size)
+                    throw new IndexOutOfBoundsException(String.format("index %d out of bounds for %d neighbors", index, size));
+                return targets[start + index];
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public void forEachNeighbor(int node, IntConsumer action) {
+        if (!hasNode(node))
+            throw new IllegalArgumentException(String.format("cannot get neighbors: %d-node graph %s does not contain node %d", getNodeCount(), getName(), node));
+        for (int i = start(node), end = end(node); i < end; i++)
+            action.accept(targets[i]);
+    }
+
+    @Override
+    public int getDegree(int node) {
+        if (!hasNode(node))
+            throw new IllegalArgumentException(String.format("cannot get degree: %d-node graph %s does not contain node %d", getNodeCount(), getName(), node));
+        return end(node) - start(node);
+    }
+
+    @Override
+    public boolean addEdge(int nodeFrom, int nodeTo) {
+        if(!hasNode(nodeFrom))
+            throw new IllegalArgumentException(String.format("cannot add edge: nodeFrom out of bounds (%d)", nodeFrom));
+        if(!hasNode(nodeTo))
+            throw new IllegalArgumentException(String.format("cannot add edge: nodeTo out of bounds (%d)", nodeTo));
+        if(nodeFrom < lastRow)
+            throw new UnsupportedOperationException(String.format("cannot add edge: row of node %d is already final, edges must be added in order of nodeFrom", nodeFrom));
+
+        // advance to row of nodeFrom, all rows in between stay empty
+        while (lastRow < nodeFrom)
+            offsets[++lastRow] = e;
+
+        // files usually list neighbors in ascending order, then this appends without searching or shifting
+        int pos = e;
+        if (e > offsets[nodeFrom] && targets[e - 1] >= nodeTo) {
+            pos = Arrays.binarySearch(targets, offsets[nodeFrom], e, nodeTo);
+            if (pos >= 0)
+                return false;
+            pos = -pos - 1;
+        }
+
+        if (e == targets.length)
+            targets = Arrays.copyOf(targets, targets.length * 2);
+        System.arraycopy(targets, pos, targets, pos + 1, e - pos);
+        targets[pos] = nodeTo;
+        e++;
+        hubs = null;
+        return true;
+    }
+
+    @Override
+    public boolean hasEdge(int nodeFrom, int nodeTo) {
+        if(hasNode(nodeFrom) && hasNode(nodeTo)) {
+            if (hubs != null && hubs.isHub(nodeFrom))
+                return hubs.hasEdge(nodeFrom, nodeTo);
+            return Arrays.binarySearch(targets, start(nodeFrom), end(nodeFrom), nodeTo) >= 0;
+        } else
+            throw new IllegalArgumentException(String.format("cannot add edge: %d-node graph %s does not contain node %d or %d", getNodeCount(), getName(), nodeFrom, nodeTo));
+    }
+
+    @Override
+    public double[][] toMatrix() {
+        double[][] mat = new double[n][n];
+        for (int i = 0; i < n; i++)
+            for (int j = start(i), end = end(i); j < end; j++)
+                mat[i][targets[j]] = 1;
+        return mat;
+    }
+}
@@ -0,0 +1,102 @@
+package graph;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.factory.DecompositionFactory_DDRM;
+import org.ejml.interfaces.decomposition.EigenDecomposition_F64;
+
+import java.util.Arrays;
+
+/**
+ * computes the second smallest eigenvalue of the normalized laplacian with a dense symmetric eigendecomposition
+ * meant for small graphs: matrix and decomposition are kept per thread and reused, growing to the largest graph seen
+ */
+public class DenseSolver {
+    private static final ThreadLocal<Workspace> workspace = ThreadLocal.withInitial(Workspace::new);
+
+    private static class Workspace {
+        final DMatrixRMaj laplacian = new DMatrixRMaj(1, 1);
+        final EigenDecomposition_F64<DMatrixRMaj> evd = DecompositionFactory_DDRM.eig(false, true);
+        // only created if eigenvectors are asked for; its eigenvector workspace fails on a matrix of another size,
+        // so it is recreated when the size changes
+        EigenDecomposition_F64<DMatrixRMaj> evdWithVectors;
+        int evdWithVectorsSize;
+        int[] degrees = new int[0];
+    }
+
+    /**
+     * @return second smallest eigenvalue of normalized laplacian of g, Double.MAX_VALUE if g has less than two nodes
+     */
+    public static double getFiedlerValue(Graph g) {
+        return getFiedlerValue(g, null);
+    }
+
+    /**
+     * @param vector if not null, receives the fiedler vector x = D^-1/2 y of the eigenvector y, see LanczosSolver
+     * @return see getFiedlerValue(Graph)
+     */
+    public static double getFiedlerValue(Graph g, float[] vector) {
+        final int n = g.getNodeCount();
+        if (n < 2)
+            return Double.MAX_VALUE;
+
+        Workspace ws = workspace.get();
+        if (ws.degrees.length < n)
+            ws.degrees = new int[n];
+        int[] degrees = ws.degrees;
+        for (int i = 0; i < n; i++)
+            degrees[i] = g.getDegree(i);
+
+        // reshape keeps the backing array if it is large enough, so only clear the part that is used
+        DMatrixRMaj laplacian = ws.laplacian;
+        laplacian.reshape(n, n);
+        Arrays.fill(laplacian.data, 0, n * n, 0);
+        for (int i = 0; i < n; i++) {
+            if (degrees[i] != 0)
+                laplacian.unsafe_set(i, i, 1);
+            final int row = i;
+            g.forEachNeighbor(i, j -> {
+                if (j != row)
+                    laplacian.unsafe_set(row, j, -1 / Math.sqrt((double) degrees[row] * degrees[j]));
+            });
+        }
+
+        EigenDecomposition_F64<DMatrixRMaj> evd = ws.evd;
+        if (vector != null) {
+            if (ws.evdWithVectors == null || ws.evdWithVectorsSize != n) {
+                ws.evdWithVectors = DecompositionFactory_DDRM.eig(true, true);
+                ws.evdWithVectorsSize = n;
+            }
+            evd = ws.evdWithVectors;
+        }
+        if (!evd.decompose(laplacian))
+            throw new IllegalStateException(String.format("eigendecomposition of %d-node graph %s did not converge", n, g.getName()));
+
+        // two smallest eigenvalues, the smallest is (numerically) zero
+        double min = Double.MAX_VALUE;
+        double secondSmallest = Double.MAX_VALUE;
+        int minIndex = -1, secondIndex = -1;
+        for (int i = 0; i < evd.getNumberOfEigenvalues(); i++) {
+            double value = evd.getEigenvalue(i).getReal();
+            if (value < min) {
+                secondSmallest = min;
+                secondIndex = minIndex;
+                min = value;
+                minIndex = i;
+            } else if (value < secondSmallest) {
+                secondSmallest = value;
+                secondIndex = i;
+            }
+        }
+
+        if (vector != null) {
+            DMatrixRMaj y = evd.getEigenVector(secondIndex);
+            double norm = 0;
+            for (int i = 0; i < n; i++)
+                norm += y.get(i) * y.get(i);
+            norm = Math.sqrt(norm);
+            for (int i = 0; i < n; i++)
+                vector[i] = degrees[i] == 0 ? 0 : (float) (y.get(i) / norm / Math.sqrt(degrees[i]));
+        }
+        return secondSmallest;
+    }
+}
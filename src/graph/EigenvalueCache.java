@@ -0,0 +1,295 @@
+package graph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * persistent map from a community's node set to its eigenvalue, shared between runs and tasks, one process at a time:
+ * the cache holds a lock on a file next to it, which unlike the table isn't replaced when the table grows
+ * key is a 64 bit hash of the sorted original node ids; on disk an open addressing table in a memory mapped file,
+ * in front of it small LRU maps for the hottest entries, striped by key. lookups in the table share a read lock,
+ * writes to it take the write lock, so merging threads only wait for each other on puts
+ * file layout: magic, version, capacity, size (ints), then capacity entries of (long key, double ev), key 0 = empty
+ */
+public class EigenvalueCache implements Closeable {
+    private static final int MAGIC = 0x45564341; // "EVCA"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int ENTRY = 16;
+    private static final int MAX_CAPACITY = 1 << 26; // 1GB file, stays below the 2GB mapping limit
+    private static final double MAX_LOAD = 0.7;
+    private static final int LRU_STRIPES = 16;
+
+    private final File file;
+    // each guarded by itself
+    private final LinkedHashMap<Long, Double>[] lru;
+    // guards table, capacity, size and the file
+    private final ReentrantReadWriteLock tableLock = new ReentrantReadWriteLock();
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private RandomAccessFile raf;
+    private MappedByteBuffer table;
+    private int capacity;
+    private int size;
+
+    /**
+     * open cache file, creating it if it doesn't exist
+     * @param lruSize number of entries kept in memory in front of the file
+     * @throws IOException also if another process, or another cache in this one, has the file open
+     */
+    @SuppressWarnings("unchecked")
+    public EigenvalueCache(File file, int lruSize) throws IOException {
+        this.file = file;
+        int stripeSize = Math.max(1, lruSize / LRU_STRIPES);
+        this.lru = new LinkedHashMap[LRU_STRIPES];
+        for (int i = 0; i < LRU_STRIPES; i++)
+            lru[i] = new LinkedHashMap<Long, Double>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Double> eldest) {
+                    return size() > stripeSize;
+                }
+            };
+
+        lockChannel = FileChannel.open(new File(file.getPath() + ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock l;
+        try {
+            l = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            l = null;
+        }
+        lock = l;
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("eigenvalue cache " + file + " is open already, in another process or cache");
+        }
+
+        try {
+            if (!file.exists() || file.length() == 0)
+                create(file, 1 << 16);
+            open();
+        } catch (IOException | RuntimeException e) {
+            if (raf != null)
+                raf.close();
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * if system property evCache is set, open the cache file it names, use it for all eigenvalues of induced subgraphs
+     * and write it to disk on exit
+     */
+    public static void installFromProperty() throws IOException {
+        String path = System.getProperty("evCache");
+        if (path == null)
+            return;
+        EigenvalueCache cache = new EigenvalueCache(new File(path), 1 << 20);
+        Graph.setEigenvalueCache(cache);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        System.out.printf("using eigenvalue cache %s with %d entries%n", path, cache.size());
+    }
+
+    /**
+     * @param sortedNodes original node ids of community in ascending order
+     * @return eigenvalue of community, -1 if not cached
+     */
+    public double get(int[] sortedNodes) {
+        long key = key(sortedNodes);
+        LinkedHashMap<Long, Double> stripe = stripe(key);
+        synchronized (stripe) {
+            Double ev = stripe.get(key);
+            if (ev != null)
+                return ev;
+        }
+
+        double value;
+        tableLock.readLock().lock();
+        try {
+            int slot = find(key);
+            if (table.getLong(HEADER + slot * ENTRY) != key)
+                return -1;
+            value = table.getDouble(HEADER + slot * ENTRY + 8);
+        } finally {
+            tableLock.readLock().unlock();
+        }
+        synchronized (stripe) {
+            stripe.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * @param sortedNodes original node ids of community in ascending order
+     */
+    public void put(int[] sortedNodes, double ev) {
+        long key = key(sortedNodes);
+        LinkedHashMap<Long, Double> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, ev);
+        }
+
+        tableLock.writeLock().lock();
+        try {
+            int slot = find(key);
+            // only a new key takes a slot and may need a larger table
+            if (table.getLong(HEADER + slot * ENTRY) != key) {
+                if (size + 1 > capacity * MAX_LOAD) {
+                    if (capacity >= MAX_CAPACITY)
+                        return; // file is full, keep serving from memory only
+                    try {
+                        grow();
+                    } catch (IOException e) {
+                        throw new RuntimeException("cannot grow eigenvalue cache " + file, e);
+                    }
+                    slot = find(key);
+                }
+                table.putLong(HEADER + slot * ENTRY, key);
+                table.putInt(12, ++size);
+            }
+            table.putDouble(HEADER + slot * ENTRY + 8, ev);
+        } finally {
+            tableLock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        tableLock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            tableLock.readLock().unlock();
+        }
+    }
+
+    private LinkedHashMap<Long, Double> stripe(long key) {
+        return lru[(int) (key ^ (key >>> 32)) >>> 16 & (LRU_STRIPES - 1)];
+    }
+
+    /**
+     * write changes to disk
+     */
+    @Override
+    public void close() throws IOException {
+        tableLock.writeLock().lock();
+        try {
+            table.force();
+            raf.close();
+        } finally {
+            // closing the channel releases the lock
+            lockChannel.close();
+            tableLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return slot containing key or first empty slot on its probe sequence
+     */
+    private int find(long key) {
+        int mask = capacity - 1;
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        long k;
+        while ((k = table.getLong(HEADER + slot * ENTRY)) != 0 && k != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        if (raf.length() < HEADER)
+            throw new IOException("eigenvalue cache " + file + " is truncated");
+        table = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        table.order(ByteOrder.LITTLE_ENDIAN);
+        if (table.getInt(0) != MAGIC || table.getInt(4) != VERSION)
+            throw new IOException(file + " is not an eigenvalue cache");
+        capacity = table.getInt(8);
+        size = table.getInt(12);
+        if (Integer.bitCount(capacity) != 1 || raf.length() != HEADER + (long) capacity * ENTRY)
+            throw new IOException("eigenvalue cache " + file + " is corrupt");
+    }
+
+    /**
+     * create empty table file with given capacity
+     */
+    private void create(File f, int capacity) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(f, "rw")) {
+            out.setLength(0);
+            out.setLength(HEADER + (long) capacity * ENTRY);
+            MappedByteBuffer buf = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, capacity).putInt(12, 0);
+            buf.force();
+        }
+    }
+
+    /**
+     * rehash into a table of twice the size, written next to the cache and then moved over it
+     */
+    private void grow() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        int newCapacity = capacity * 2;
+        create(tmp, newCapacity);
+
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            MappedByteBuffer newTable = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, out.length());
+            newTable.order(ByteOrder.LITTLE_ENDIAN);
+            int mask = newCapacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                long key = table.getLong(HEADER + i * ENTRY);
+                if (key == 0)
+                    continue;
+                int slot = (int) (key ^ (key >>> 32)) & mask;
+                while (newTable.getLong(HEADER + slot * ENTRY) != 0)
+                    slot = (slot + 1) & mask;
+                newTable.putLong(HEADER + slot * ENTRY, key);
+                newTable.putDouble(HEADER + slot * ENTRY + 8, table.getDouble(HEADER + i * ENTRY + 8));
+            }
+            newTable.putInt(12, size);
+            newTable.force();
+        }
+
+        raf.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+    }
+
+    /**
+     * 64 bit hash of node set, includes size; never 0 since that marks empty slots
+     * also identifies communities in checkpoints
+     */
+    public static long key(int[] sortedNodes) {
+        long h = 0x9E3779B97F4A7C15L * (sortedNodes.length + 1);
+        for (int node : sortedNodes)
+            h = mix(h ^ node) + 0x9E3779B97F4A7C15L;
+        h = mix(h);
+        return h == 0 ? 1 : h;
+    }
+
+    /** murmur3 finalizer */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
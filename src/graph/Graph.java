@@ -1,14 +1,10 @@
 package graph;
 
 import io.GraphWriter;
-import org.ejml.data.DMatrixRMaj;
-import org.ejml.dense.row.factory.DecompositionFactory_DDRM;
-import org.ejml.interfaces.decomposition.EigenDecomposition_F64;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.stream.IntStream;
+import java.util.function.IntConsumer;
 
 /**
  * abstract base class, doesn't support adding nodes, adding edges is only supported for reading from files etc
@@ -20,6 +16,20 @@ public abstract class Graph implements Comparable<Graph> {
     double ev = -1;
     String name;
 
+    /** graphs with more nodes than this get their eigenvalue from the sparse solver, -1 to pick automatically */
+    private static int sparseSolverThreshold = -1;
+    /** never use the dense solver beyond this size, its workspace would take too much memory per thread */
+    private static final int MAX_DENSE_SIZE = 1024;
+    private static LanczosSolver sparseSolver = new LanczosSolver(1e-9, 128, 5000);
+    /** optional persistent cache consulted by induced subgraphs, null if unused */
+    static EigenvalueCache eigenvalueCache;
+    /** optional hash sets of the neighbors of high degree nodes, consulted by hasEdge; null if not built */
+    HubIndex hubs;
+    /** keep the fiedler vector along with the eigenvalue, to warm start the solver for merged communities */
+    static boolean keepFiedlerVectors;
+    /** fiedler vector as x = D^-1/2 y by node id, see LanczosSolver; null unless kept */
+    float[] fiedler;
+
     Graph(int n) {
         this.n = n;
         this.name = "defaultName";
@@ -32,14 +42,23 @@ public abstract class Graph implements Comparable<Graph> {
     public abstract Iterable<Integer> getNeighbors(int node);
 
     /**
-     * implemented via getNeighbors
+     * primitive alternative to getNeighbors, implemented via getNeighbors; subclasses should override without boxing
+     * @param node node to get neighbors from
+     * @param action called once for each neighbor of node
+     */
+    public void forEachNeighbor(int node, IntConsumer action) {
+        for (int neighbor : getNeighbors(node))
+            action.accept(neighbor);
+    }
+
+    /**
+     * implemented via forEachNeighbor, subclasses override with cached or stored degrees
      * @return degree of node
      */
     public int getDegree(int node) {
-        int deg = 0;
-        for (int ignored : getNeighbors(node))
-            deg++;
-        return deg;
+        int[] deg = new int[1];
+        forEachNeighbor(node, neighbor -> deg[0]++);
+        return deg[0];
     }
 
     /**
@@ -56,19 +75,24 @@ public abstract class Graph implements Comparable<Graph> {
         final short BLACK = 2;
 
         ArrayList<Integer> nodes = new ArrayList<>();
-        LinkedList<Integer> queue = new LinkedList<>();
+        // every node is enqueued at most once, so n slots suffice; tail is boxed in an array for use in lambda
+        int[] queue = new int[n];
+        int[] tail = {0};
+        int head = 0;
         short[] visited = new short[n];
-        queue.push(start);
+        queue[tail[0]++] = start;
+        visited[start] = GRAY;
 
-        while (!queue.isEmpty()) {
-            int node = queue.poll();
+        while (head < tail[0]) {
+            int node = queue[head++];
             visited[node] = BLACK;
             nodes.add(node);
-            for(Integer neighbor : getNeighbors(node))
+            forEachNeighbor(node, neighbor -> {
                 if(visited[neighbor] == WHITE) {
-                    queue.push(neighbor);
+                    queue[tail[0]++] = neighbor;
                     visited[neighbor] = GRAY;
                 }
+            });
         }
 
         return nodes;
@@ -81,42 +105,97 @@ public abstract class Graph implements Comparable<Graph> {
         if (ev != -1)
             return ev;
 
-        double[][] matrix = toMatrix();
-
-        // get laplacian
-        DMatrixRMaj laplacian = new DMatrixRMaj(matrix.length, matrix.length);
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix.length; j++) {
-                double newValue = 0;
-                if(i == j && getDegree(i) != 0)
-                    newValue = 1;
-                else if (hasEdge(i, j))
-                    newValue = -1 / Math.sqrt(getDegree(i) * getDegree(j));
-                laplacian.set(i, j, newValue);
-            }
-        }
+        ev = computeEigenvalue();
+        return ev;
+    }
 
-        // calculate eigenvalues
-        EigenDecomposition_F64<DMatrixRMaj> evd = DecompositionFactory_DDRM.eig(laplacian.getNumElements(), false);
-        evd.decompose(laplacian);
-
-        // find minimum index
-        double min = Double.MAX_VALUE;
-        int index = 0;
-        for (int i = 0; i < evd.getNumberOfEigenvalues(); i++)
-            if(evd.getEigenvalue(i).getReal() < min) {
-                min = evd.getEigenvalue(i).getReal();
-                index = i;
-            }
+    /**
+     * the smallest ritz value of a krylov space orthogonal to the trivial eigenvector approaches the eigenvalue from
+     * above, so a few lanczos steps give an upper bound (up to rounding) at a fraction of the cost of solving
+     * @param iterations number of lanczos steps, at least 2
+     * @return upper bound on the second smallest eigenvalue of the normalized laplacian, the eigenvalue if known
+     */
+    public double getEigenvalueUpperBound(int iterations) {
+        if (ev != -1)
+            return ev;
+        return new LanczosSolver(sparseSolver.getTolerance(), iterations, iterations).getFiedlerValue(this);
+    }
 
-        // find second smallest
-        double secondSmallest = Double.MAX_VALUE;
-        for (int i = 0; i < evd.getNumberOfEigenvalues(); i++)
-            if(evd.getEigenvalue(i).getReal() < secondSmallest && i != index)
-                secondSmallest = evd.getEigenvalue(i).getReal();
+    /**
+     * @return second smallest eigenvalue of normalized laplacian, computed with whichever solver is cheaper
+     */
+    double computeEigenvalue() {
+        return computeEigenvalue(null);
+    }
 
-        ev = secondSmallest;
-        return secondSmallest;
+    /**
+     * @param start approximate fiedler vector to start the sparse solver from, null for none
+     */
+    double computeEigenvalue(float[] start) {
+        if (!keepFiedlerVectors)
+            return useDenseSolver() ? DenseSolver.getFiedlerValue(this) : sparseSolver.getFiedlerValue(this, start, null);
+        float[] vector = new float[n];
+        double value = useDenseSolver() ? DenseSolver.getFiedlerValue(this, vector) : sparseSolver.getFiedlerValue(this, start, vector);
+        fiedler = vector;
+        return value;
+    }
+
+    /**
+     * @param keep keep the fiedler vector of every graph whose eigenvalue is computed from now on, one float per node
+     */
+    public static void setKeepFiedlerVectors(boolean keep) {
+        keepFiedlerVectors = keep;
+    }
+
+    /**
+     * @return fiedler vector as x = D^-1/2 y by node id, null if it has not been kept; must not be modified
+     */
+    public float[] getFiedlerVector() {
+        return fiedler;
+    }
+
+    /**
+     * @param cache cache to look up eigenvalues of induced subgraphs in before computing them, null to disable
+     */
+    public static void setEigenvalueCache(EigenvalueCache cache) {
+        eigenvalueCache = cache;
+    }
+
+    /**
+     * the dense symmetric decomposition costs about 4 n^3 (measured, including tridiagonalization), lanczos about
+     * m * (2e + 4nm) for m iterations; estimate m generously and pick the cheaper one
+     * crossover is at roughly 100 nodes for communities of typical density
+     */
+    private boolean useDenseSolver() {
+        if (sparseSolverThreshold >= 0)
+            return n <= sparseSolverThreshold;
+        if (n > MAX_DENSE_SIZE)
+            return false;
+        double m = Math.min(n, 100);
+        double dense = 4d * n * n * n;
+        double sparse = m * (2d * getEdgeCount() + 4 * n * m);
+        return dense <= sparse;
+    }
+
+    /**
+     * @param threshold graphs with more nodes are solved with the sparse solver, -1 to pick automatically
+     */
+    public static void setSparseSolverThreshold(int threshold) {
+        sparseSolverThreshold = threshold;
+    }
+
+    /**
+     * @param tolerance residual norm at which the sparse solver stops iterating
+     */
+    public static void setEigenvalueTolerance(double tolerance) {
+        sparseSolver = new LanczosSolver(tolerance, 128, 5000);
+    }
+
+    /**
+     * @return eigenvalue if it has been computed or set, -1 otherwise; never computes it
+     */
+    public double getKnownEigenvalue() {
+        return ev;
     }
 
     public void setEigenvalue(double ev) {
@@ -136,14 +215,15 @@ public abstract class Graph implements Comparable<Graph> {
      */
     public ArrayList<Integer> getCcSizes() {
         ArrayList<Integer> sizes = new ArrayList<>();
-        ArrayList<Integer> traversed = new ArrayList<>();
+        boolean[] traversed = new boolean[n];
 
-        int start = 0;
-        while (traversed.size() < n && start != -1) {
+        for (int start = 0; start < n; start++) {
+            if (traversed[start])
+                continue;
             ArrayList<Integer> component = BFTraverse(start);
-            traversed.addAll(component);
+            for (int node : component)
+                traversed[node] = true;
             sizes.add(component.size());
-            start = IntStream.range(0, n).filter(n -> !traversed.contains(n)).findFirst().orElse(-1);
         }
 
         return sizes;
@@ -157,6 +237,19 @@ public abstract class Graph implements Comparable<Graph> {
         return getCcSizes().size();
     }
 
+    /**
+     * build hash sets of the neighbors of all nodes with at least minDegree neighbors, so hasEdge from those nodes
+     * takes constant time; meant for hubs after loading, the index is dropped again if an edge is added
+     * @return number of nodes indexed
+     */
+    public int indexHubs(int minDegree) {
+        if (minDegree < 1)
+            throw new IllegalArgumentException("cannot index hubs with minimum degree " + minDegree);
+        HubIndex index = new HubIndex(this, minDegree);
+        hubs = index.getHubCount() > 0 ? index : null;
+        return index.getHubCount();
+    }
+
     /**
      * @return false if edge already present, else true
      */
@@ -227,50 +320,51 @@ public abstract class Graph implements Comparable<Graph> {
     }
 
     /**
-     * @param other other Graph to check against
-     * @return percentage of nodes contained both in this and the other graph
+     * InducedSubgraph overrides to return node ids in original graph
+     * @return ids of all nodes of this graph in ascending order, a new array
      */
-    public ArrayList<Integer> getOverlappingNodes(Graph other) {
-        ArrayList<Integer> a = toNodeList();
-        ArrayList<Integer> b = other.toNodeList();
-        ArrayList<Integer> overlapping = new ArrayList<>();
-
-        // naive, might be too slow
+    public int[] getSortedNodes() {
+        int[] nodes = new int[n];
         for (int i = 0; i < n; i++)
-            for (int j = 0; j < other.n; j++)
-                if (b.get(j).equals(a.get(i))) {
-                    overlapping.add(b.get(j));
-                    break;
-                }
+            nodes[i] = i;
+        return nodes;
+    }
 
-        return overlapping;
+    /**
+     * like getSortedNodes, but may return an internal array that must not be modified
+     */
+    int[] sortedNodes() {
+        return getSortedNodes();
     }
 
     /**
-     * @return arraylist of nodes of this graph whose id is not also contained in the nodelist of other,
+     * @param other other Graph to check against
+     * @return nodes contained both in this and the other graph, in ascending order
+     */
+    public ArrayList<Integer> getOverlappingNodes(Graph other) {
+        return toList(NodeSets.intersection(sortedNodes(), other.sortedNodes()));
+    }
+
+    /**
+     * @return arraylist of nodes of this graph whose id is not also contained in the nodelist of other, in ascending order
      *         in case of InducedSubgraph node ids are given in terms of node ids in original graph
      */
     public ArrayList<Integer> getNonoverlappingNodes(Graph other) {
-        ArrayList<Integer> originalNodesOfThis = toNodeList();
-        ArrayList<Integer> originalNodesOfOther = other.toNodeList();
-        ArrayList<Integer> nonoverlappingNodes= new ArrayList<>();
-
-        outer: for (int i : originalNodesOfThis) {
-            for (int j : originalNodesOfOther)
-                if (i == j)
-                    continue outer;
-            // if node i is not present in other graph, it's nonoverlapping
-            nonoverlappingNodes.add(i);
-        }
+        return toList(NodeSets.difference(sortedNodes(), other.sortedNodes()));
+    }
 
-        return nonoverlappingNodes;
+    private static ArrayList<Integer> toList(int[] nodes) {
+        ArrayList<Integer> list = new ArrayList<>(nodes.length);
+        for (int node : nodes)
+            list.add(node);
+        return list;
     }
 
     /**
      * @return percentage of nodes both in this graph and the other graph (by id)
      */
     public double getNodeOverlapPercent(Graph other) {
-        return (double) getOverlappingNodes(other).size() / n;
+        return (double) NodeSets.intersectionSize(sortedNodes(), other.sortedNodes()) / n;
     }
 
     @Override
@@ -0,0 +1,68 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * hash sets of the neighbors of high degree nodes, so hasEdge on hubs takes constant time instead of a binary search
+ * built once from a graph whose edges don't change afterwards, see Graph.indexHubs
+ */
+class HubIndex {
+    private static final int EMPTY = -1;
+
+    // open addressing tables with power of two size, null for nodes below the minimum degree
+    private final int[][] tables;
+    private final int hubCount;
+
+    HubIndex(Graph g, int minDegree) {
+        tables = new int[g.getNodeCount()][];
+        int count = 0;
+        for (int i = 0; i < tables.length; i++) {
+            int degree = g.getDegree(i);
+            if (degree < minDegree)
+                continue;
+            // load factor at most 0.5
+            int[] table = new int[Integer.highestOneBit(Math.max(1, degree)) << 2];
+            Arrays.fill(table, EMPTY);
+            int mask = table.length - 1;
+            g.forEachNeighbor(i, neighbor -> {
+                int slot = hash(neighbor) & mask;
+                while (table[slot] != EMPTY && table[slot] != neighbor)
+                    slot = (slot + 1) & mask;
+                table[slot] = neighbor;
+            });
+            tables[i] = table;
+            count++;
+        }
+        hubCount = count;
+    }
+
+    boolean isHub(int node) {
+        return tables[node] != null;
+    }
+
+    /**
+     * @param nodeFrom a hub
+     */
+    boolean hasEdge(int nodeFrom, int nodeTo) {
+        int[] table = tables[nodeFrom];
+        int mask = table.length - 1;
+        int slot = hash(nodeTo) & mask;
+        int k;
+        while ((k = table[slot]) != EMPTY) {
+            if (k == nodeTo)
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    int getHubCount() {
+        return hubCount;
+    }
+
+    /** node ids are often dense in a neighborhood, spread them over the table */
+    private static int hash(int node) {
+        int h = node * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -1,43 +1,97 @@
 package graph;
 
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
 
 /**
  * Decorator: Lookups are passed on to parent graph, lightweight to create
+ * node i of the subgraph is nodes[i] in the parent graph; reverse lookups are binary searches, directly on nodes
+ * if it is sorted, otherwise through byOriginal, the subgraph's node ids in order of their original ids
+ * a subgraph in a CommunityStore is a view of its handle: lock state and eigenvalue are kept by the store, and
+ * all views of a handle are equal
  */
 public class InducedSubgraph extends Graph {
-    private HashMap<Integer, Integer> mapToOriginalIDs;
-    private HashMap<Integer, Integer> mapToNewIDs;
+    private static final AtomicIntegerFieldUpdater<InducedSubgraph> LOCK_STATE = AtomicIntegerFieldUpdater.newUpdater(InducedSubgraph.class, "lockState");
+    private static final int UNLOCKED = CommunityStore.UNLOCKED, HELD = CommunityStore.HELD, RETIRED = CommunityStore.RETIRED;
+
+    private final int[] nodes;
+    private final int[] byOriginal;
     private Graph g;
-    private ReentrantLock lock = new ReentrantLock();
+    private volatile SoftReference<CompressedSparseRow> materialized;
+    private volatile int lockState;
+    // the subgraphs this one was merged from, while its eigenvalue is unknown and one of them has a fiedler vector
+    private InducedSubgraph[] parents;
+    // set by CommunityStore.adopt for subgraphs created outside the store
+    CommunityStore store;
+    int handle = -1;
 
     /**
      * create new subgraph from graph and list of nodes
      */
     public InducedSubgraph(Graph g, ArrayList<Integer> nodes) {
-        this(g, nodes.toArray(new Integer[0]));
+        this(g, nodes.stream().mapToInt(Integer::intValue).toArray());
     }
 
     public InducedSubgraph(Graph g, Integer[] nodes) {
+        this(g, Arrays.stream(nodes).mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * @param nodes original ids of nodes, in order of their ids in the subgraph; not copied
+     */
+    public InducedSubgraph(Graph g, int[] nodes) {
         super(nodes.length);
 
         // check if nodes in range
-        int max = Arrays.stream(nodes).max(Integer::compareTo).orElse(-1);
+        int min = Integer.MAX_VALUE, max = -1;
+        boolean sorted = true;
+        for (int i = 0; i < nodes.length; i++) {
+            min = Math.min(min, nodes[i]);
+            max = Math.max(max, nodes[i]);
+            sorted &= i == 0 || nodes[i - 1] < nodes[i];
+        }
         if(max >= g.getNodeCount())
             // problem: creation of partially initialized object if we get to this point
             throw new IllegalArgumentException(String.format("cannot create induced subgraph: graph %s does not have node with id %d", g.name, max));
+        if(min < 0)
+            throw new IllegalArgumentException(String.format("cannot create induced subgraph: graph %s does not have node with id %d", g.name, min));
 
         this.g = g;
+        this.nodes = nodes;
+        this.byOriginal = sorted ? null : sortByOriginal(nodes);
+    }
 
-        mapToOriginalIDs = new HashMap<>();
-        mapToNewIDs = new HashMap<>();
-        for (int i = 0; i < nodes.length; i++) {
-            mapToOriginalIDs.put(i, nodes[i]);
-            mapToNewIDs.put(nodes[i], i);
-        }
+    /**
+     * view of a community of store, nodes are in ascending order and in range
+     */
+    InducedSubgraph(Graph g, int[] sortedNodes, CommunityStore store, int handle) {
+        super(sortedNodes.length);
+        this.g = g;
+        this.nodes = sortedNodes;
+        this.byOriginal = null;
+        this.store = store;
+        this.handle = handle;
+        this.ev = store.getEigenvalue(handle);
+        this.fiedler = store.getFiedlerVector(handle);
+    }
+
+    /**
+     * @return indices of nodes, ordered by the node at that index
+     */
+    private static int[] sortByOriginal(int[] nodes) {
+        // original id in the high half, index in the low half, so sorting the longs sorts by id
+        long[] keys = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+            keys[i] = (long) nodes[i] << 32 | i;
+        Arrays.sort(keys);
+        int[] order = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+            order[i] = (int) keys[i];
+        return order;
     }
 
     /**
@@ -46,16 +100,79 @@ public class InducedSubgraph extends Graph {
      */
     @Override
     public ArrayList<Integer> getNeighbors(int node) {
-        if(node > n || node < 0)
-            throw new IllegalArgumentException("node id out of range for this subgraph");
         ArrayList<Integer> neighbors = new ArrayList<>();
-        int neighbor;
-        for (int i : g.getNeighbors(mapToOriginalIDs.get(node))) {
-            neighbor = mapToNewIDs.getOrDefault(i, -1);
+        forEachNeighbor(node, neighbors::add);
+        return neighbors;
+    }
+
+    /**
+     * uses the local csr if it is materialized, otherwise passes on to parent graph,
+     * skipping neighbors that are not in the subgraph
+     */
+    @Override
+    public void forEachNeighbor(int node, IntConsumer action) {
+        if(node >= n || node < 0)
+            throw new IllegalArgumentException("node id out of range for this subgraph");
+        CompressedSparseRow local = getMaterialized();
+        if (local != null) {
+            local.forEachNeighbor(node, action);
+            return;
+        }
+        g.forEachNeighbor(nodes[node], i -> {
+            int neighbor = getNewNodeID(i);
             if (neighbor != -1)
-                neighbors.add(neighbor);
+                action.accept(neighbor);
+        });
+    }
+
+    /**
+     * @return degree of node within this subgraph, from the local csr
+     */
+    @Override
+    public int getDegree(int node) {
+        if(node >= n || node < 0)
+            throw new IllegalArgumentException("node id out of range for this subgraph");
+        return materialize().getDegree(node);
+    }
+
+    /**
+     * build a copy of this subgraph with local node ids in compressed sparse row format, or return the one built before
+     * the copy is only softly referenced, so it is dropped again when memory runs low
+     * subgraph is immutable, so concurrent callers build the same graph; no need to lock
+     */
+    public CompressedSparseRow materialize() {
+        CompressedSparseRow local = getMaterialized();
+        if (local != null)
+            return local;
+
+        int[] offsets = new int[n + 1];
+        int[][] targets = {new int[Math.max(16, 4 * n)]};
+        int[] e = {0};
+        for (int i = 0; i < n; i++) {
+            offsets[i] = e[0];
+            g.forEachNeighbor(nodes[i], j -> {
+                int neighbor = getNewNodeID(j);
+                if (neighbor == -1)
+                    return;
+                if (e[0] == targets[0].length)
+                    targets[0] = Arrays.copyOf(targets[0], 2 * e[0]);
+                targets[0][e[0]++] = neighbor;
+            });
         }
-        return neighbors;
+        offsets[n] = e[0];
+
+        local = new CompressedSparseRow(offsets, Arrays.copyOf(targets[0], e[0]));
+        local.setName(getName());
+        materialized = new SoftReference<>(local);
+        return local;
+    }
+
+    /**
+     * @return local csr if it is currently materialized, else null
+     */
+    private CompressedSparseRow getMaterialized() {
+        SoftReference<CompressedSparseRow> ref = materialized;
+        return ref == null ? null : ref.get();
     }
 
     @Override
@@ -65,9 +182,10 @@ public class InducedSubgraph extends Graph {
 
     @Override
     public boolean hasEdge(int nodeFrom, int nodeTo) {
-        if (hasNode(nodeFrom) && hasNode(nodeTo))
-            return g.hasEdge(mapToOriginalIDs.get(nodeFrom), mapToOriginalIDs.get(nodeTo));
-        else
+        if (hasNode(nodeFrom) && hasNode(nodeTo)) {
+            CompressedSparseRow local = getMaterialized();
+            return local != null ? local.hasEdge(nodeFrom, nodeTo) : g.hasEdge(nodes[nodeFrom], nodes[nodeTo]);
+        } else
             throw new IllegalArgumentException(String.format("cannot add edge: %d-node graph %s does not contain node %d or %d", getNodeCount(), getName(), nodeFrom, nodeTo));
     }
 
@@ -76,12 +194,7 @@ public class InducedSubgraph extends Graph {
      */
     @Override
     public double[][] toMatrix() {
-        double[][] mat = new double[n][n];
-        for (int i = 0; i < n; i++)
-            for (int j = 0; j < n; j++)
-                if (hasEdge(i, j))
-                    mat[i][j] = 1;
-        return mat;
+        return materialize().toMatrix();
     }
 
     /**
@@ -89,36 +202,222 @@ public class InducedSubgraph extends Graph {
      */
     @Override
     public int getEdgeCount() {
-        int count = 0;
+        return materialize().getEdgeCount();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return materialize().isConnected();
+    }
+
+    @Override
+    public ArrayList<Integer> getCcSizes() {
+        return materialize().getCcSizes();
+    }
+
+    /**
+     * computed on the local csr; looks up eigenvalue in the eigenvalue cache, if one is set, before computing it
+     * an eigenvalue found in the cache or the store comes without a fiedler vector, so with warm start, later merges
+     * of this subgraph start from the other subgraph's vector only, or cold if it has none either
+     */
+    @Override
+    double computeEigenvalue() {
+        // another view may have computed it since this one was created
+        if (store != null && store.getEigenvalue(handle) != -1) {
+            parents = null;
+            return store.getEigenvalue(handle);
+        }
+        EigenvalueCache cache = eigenvalueCache;
+        if (cache == null)
+            return stored(solve());
+
+        int[] sortedNodes = sortedNodes();
+        double ev = cache.get(sortedNodes);
+        if (ev == -1) {
+            ev = solve();
+            cache.put(sortedNodes, ev);
+        }
+        return stored(ev);
+    }
+
+    /**
+     * the parents are only needed to compute ev, drop them and their fiedler vectors
+     */
+    private double stored(double ev) {
+        parents = null;
+        if (store != null) {
+            store.setEigenvalue(handle, ev);
+            if (fiedler != null)
+                store.setFiedlerVector(handle, getSortedFiedlerVector());
+        }
+        return ev;
+    }
+
+    @Override
+    public double getKnownEigenvalue() {
+        if (ev == -1 && store != null)
+            ev = store.getEigenvalue(handle);
+        return ev;
+    }
+
+    @Override
+    public void setEigenvalue(double ev) {
+        parents = null;
+        super.setEigenvalue(ev);
+        if (store != null)
+            store.setEigenvalue(handle, ev);
+    }
+
+    /**
+     * @return fiedler vector by position in the sorted nodes, null if none is kept
+     */
+    float[] getSortedFiedlerVector() {
+        if (fiedler == null || byOriginal == null)
+            return fiedler;
+        float[] sorted = new float[n];
         for (int i = 0; i < n; i++)
-            for (int j = 0; j < n; j++)
-                if (hasEdge(i, j))
-                    count++;
-        return count;
+            sorted[i] = fiedler[byOriginal[i]];
+        return sorted;
+    }
+
+    /**
+     * solve on the local csr, starting from the parents' fiedler vectors if this was merged; the local csr has
+     * the same node ids, so its fiedler vector is this graph's
+     */
+    private double solve() {
+        CompressedSparseRow local = materialize();
+        double ev = local.computeEigenvalue(warmStart());
+        fiedler = local.fiedler;
+        return ev;
+    }
+
+    /**
+     * @return fiedler vectors of the parents stitched over the union of their nodes, null if there are none
+     *         the second vector is scaled and flipped to fit the first on the shared nodes (least squares), which
+     *         get the mean of both; nodes of a parent without a vector get 0
+     */
+    private float[] warmStart() {
+        InducedSubgraph[] p = parents;
+        if (p == null)
+            return null;
+        InducedSubgraph a = p[0], b = p[1];
+        float[] va = a.fiedler, vb = b.fiedler;
+
+        double ab = 0, bb = 0;
+        if (va != null && vb != null)
+            for (int i = 0; i < b.n; i++) {
+                int inA = a.getNewNodeID(b.nodes[i]);
+                if (inA != -1) {
+                    ab += va[inA] * vb[i];
+                    bb += vb[i] * vb[i];
+                }
+            }
+        double factor = ab != 0 ? ab / bb : 1;
+
+        float[] start = new float[n];
+        for (int i = 0; i < n; i++) {
+            int inA = a.getNewNodeID(nodes[i]);
+            int inB = b.getNewNodeID(nodes[i]);
+            double sum = 0;
+            int count = 0;
+            if (inA != -1 && va != null) {
+                sum += va[inA];
+                count++;
+            }
+            if (inB != -1 && vb != null) {
+                sum += factor * vb[inB];
+                count++;
+            }
+            start[i] = count == 0 ? 0 : (float) (sum / count);
+        }
+        return start;
+    }
+
+    /**
+     * rayleigh quotient of the vector that is constant on part and on the rest, orthogonal to the trivial eigenvector:
+     * cut(S, T) * (1 / vol(S) + 1 / vol(T)), at most twice the conductance of the cut; computed on the local csr
+     * @param part original ids of nodes of this graph, in ascending order
+     * @return upper bound on the eigenvalue, Double.MAX_VALUE if part or the rest has no edges
+     */
+    public double getCutBound(int[] part) {
+        CompressedSparseRow local = materialize();
+        boolean[] inPart = new boolean[n];
+        for (int node : part) {
+            int id = getNewNodeID(node);
+            if (id == -1)
+                throw new IllegalArgumentException(String.format("subgraph %s does not contain node %d", getName(), node));
+            inPart[id] = true;
+        }
+
+        long volPart = 0, volRest = 0, cut = 0;
+        for (int i = 0; i < n; i++) {
+            int degree = local.getDegree(i);
+            if (inPart[i]) {
+                volPart += degree;
+                int[] crossing = {0};
+                local.forEachNeighbor(i, j -> {
+                    if (!inPart[j])
+                        crossing[0]++;
+                });
+                cut += crossing[0];
+            } else
+                volRest += degree;
+        }
+        if (volPart == 0 || volRest == 0)
+            return Double.MAX_VALUE;
+        return cut * (1d / volPart + 1d / volRest);
     }
 
     /**
      * @return ID of node in parent graph, -1 if node is not in this graph
      */
     public int getOriginalNodeID(int node) {
-        return mapToOriginalIDs.getOrDefault(node, -1);
+        return node >= 0 && node < n ? nodes[node] : -1;
     }
 
     /**
      * @return ID of node in this graph, -1 if node is not in this graph
      */
     public int getNewNodeID(int original) {
-        return mapToNewIDs.getOrDefault(original, -1);
+        int lo = 0, hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int node = byOriginal == null ? mid : byOriginal[mid];
+            int id = nodes[node];
+            if (id < original)
+                lo = mid + 1;
+            else if (id > original)
+                hi = mid - 1;
+            else
+                return node;
+        }
+        return -1;
+    }
+
+    /**
+     * @return original ids of all nodes in ascending order, a new array
+     */
+    @Override
+    public int[] getSortedNodes() {
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++)
+            sorted[i] = nodes[byOriginal == null ? i : byOriginal[i]];
+        return sorted;
+    }
+
+    @Override
+    int[] sortedNodes() {
+        return byOriginal == null ? nodes : getSortedNodes();
     }
 
     /**
      * @return list of all original node ids of this graph
      */
     public ArrayList<Integer> toNodeList() {
-        ArrayList<Integer> nodes = new ArrayList<>();
-        for (int i = 0; i < n; i++)
-            nodes.add(getOriginalNodeID(i));
-        return nodes;
+        ArrayList<Integer> list = new ArrayList<>(n);
+        for (int node : nodes)
+            list.add(node);
+        return list;
     }
 
     /**
@@ -134,48 +433,141 @@ public class InducedSubgraph extends Graph {
 
         // assert: this.n <= other.n
 
-        ArrayList<Integer> nonoverlappingNodesOfThis = getNonoverlappingNodes(other);
-        ArrayList<Integer> nonoverlappingNodesOfOther = other.getNonoverlappingNodes(this);
+        int[] nonoverlappingNodesOfThis = NodeSets.difference(sortedNodes(), other.sortedNodes());
 
-        if (nonoverlappingNodesOfThis.size() <= 0) { // overlapping communities...
+        if (nonoverlappingNodesOfThis.length <= 0) { // overlapping communities...
             return Double.MAX_VALUE;
         }
 
         //assert nonoverlappingNodesOfThis.size() > 0 : "found embedded community";
 
-        int incidentEdges = 0;
+        int[] nonoverlappingNodesOfOther = NodeSets.difference(other.sortedNodes(), sortedNodes());
+
+        // one pass over the neighbors of the smaller side counts both the edges to the other side
+        // and the edges within the non-overlapping part of this side
+        IntPredicate inThis = membership(nonoverlappingNodesOfThis);
+        IntPredicate inOther = membership(nonoverlappingNodesOfOther);
+        int[] counts = new int[2];
         for (int nodeA : nonoverlappingNodesOfThis)
-            for (int nodeB : nonoverlappingNodesOfOther)
-                if (g.hasEdge(nodeA, nodeB))
-                    incidentEdges++;
+            g.forEachNeighbor(nodeA, neighbor -> {
+                if (inOther.test(neighbor))
+                    counts[0]++;
+                else if (inThis.test(neighbor))
+                    counts[1]++;
+            });
 
-        int nonoverlappingEdges = new InducedSubgraph(g, nonoverlappingNodesOfThis).getUndirectedEdgeCount();
+        int incidentEdges = counts[0];
+        assert counts[1] % 2 == 0 : "uneven edge count";
+        int nonoverlappingEdges = counts[1] / 2;
 
         return (double) incidentEdges / nonoverlappingEdges;
     }
 
+    /**
+     * @param sortedNodes node ids in ascending order
+     * @return membership test, a bitset lookup for large sets and a binary search otherwise
+     */
+    private static IntPredicate membership(int[] sortedNodes) {
+        if (sortedNodes.length >= NodeSets.BITSET_THRESHOLD)
+            return NodeSets.toBitSet(sortedNodes)::get;
+        return node -> NodeSets.contains(sortedNodes, node);
+    }
+
     public boolean hasOriginalNode(int originalNodeId) {
-        return mapToOriginalIDs.containsValue(originalNodeId);
+        return getNewNodeID(originalNodeId) != -1;
     }
 
+    /**
+     * @return subgraph of the union of the nodes of this and other, with node ids in ascending order;
+     *         its eigenvalue is computed starting from the fiedler vectors of this and other, if they are kept
+     */
     public InducedSubgraph merge(InducedSubgraph other) {
         assert other.g == this.g : "cannot merge induced subgraphs from different main graphs";
+        InducedSubgraph merged = new InducedSubgraph(g, NodeSets.union(sortedNodes(), other.sortedNodes()));
+        if (keepFiedlerVectors && (fiedler != null || other.fiedler != null))
+            merged.parents = new InducedSubgraph[]{this, other};
+        return merged;
+    }
+
+    /**
+     * non reentrant lock marking this subgraph as in use by a merge; a single int instead of a lock object per subgraph,
+     * or the store's lock of the handle
+     * @return true if this subgraph was unlocked and is now locked by the caller, false if it is locked or retired
+     */
+    public boolean tryLock() {
+        if (store != null)
+            return store.tryLock(handle);
+        return lockState == UNLOCKED && LOCK_STATE.compareAndSet(this, UNLOCKED, HELD);
+    }
+
+    /**
+     * does nothing if this subgraph has been retired while locked
+     */
+    public void unlock() {
+        if (store != null) {
+            store.unlock(handle);
+            return;
+        }
+        assert lockState != UNLOCKED : "attempt to unlock unlocked subgraph";
+        LOCK_STATE.compareAndSet(this, HELD, UNLOCKED);
+    }
+
+    public boolean isLocked() {
+        return store != null ? store.isLocked(handle) : lockState != UNLOCKED;
+    }
+
+    /**
+     * mark this subgraph, which the caller has locked, as replaced by a merge; it can never be locked again,
+     * so threads still holding a reference from before the merge skip it
+     */
+    public void retire() {
+        if (store != null) {
+            store.retire(handle);
+            return;
+        }
+        assert lockState == HELD : "attempt to retire subgraph without holding its lock";
+        lockState = RETIRED;
+    }
 
-        ArrayList<Integer> nodesOfThis = toNodeList();
-        ArrayList<Integer> nodesOfOther = other.toNodeList();
-        ArrayList<Integer> merged = new ArrayList<>();
+    public boolean isRetired() {
+        return store != null ? store.isRetired(handle) : lockState == RETIRED;
+    }
 
-        merged.addAll(nodesOfThis);
+    /** lock state before adoption by a store */
+    int getOwnLockState() {
+        return lockState;
+    }
 
-        for (int node : nodesOfOther)
-            if (!merged.contains(node))
-                merged.add(node);
+    /**
+     * @return store this subgraph is a view of, null if it is not in one
+     */
+    public CommunityStore getStore() {
+        return store;
+    }
 
-        return new InducedSubgraph(g, merged);
+    /**
+     * @return handle of this subgraph in its store, -1 if it is not in one
+     */
+    public int getHandle() {
+        return handle;
+    }
+
+    /**
+     * views of the same handle are equal, other subgraphs only to themselves
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (store == null || !(o instanceof InducedSubgraph))
+            return false;
+        InducedSubgraph other = (InducedSubgraph) o;
+        return other.store == store && other.handle == handle;
     }
 
-    public ReentrantLock getLock() {
-        return lock;
+    @Override
+    public int hashCode() {
+        return store == null ? System.identityHashCode(this) : handle;
     }
 
     /**
@@ -0,0 +1,346 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * computes the second smallest eigenvalue of the normalized laplacian L = I - D^-1/2 A D^-1/2 without building a matrix
+ * lanczos iteration with full reorthogonalization, restricted to the complement of the trivial eigenvector D^1/2 * 1,
+ * so the smallest ritz value converges to the fiedler value directly
+ * assumes an undirected graph (symmetric adjacency), like every graph read from metis
+ */
+public class LanczosSolver {
+    private final double tolerance;
+    private final int basisSize;
+    private final int maxIterations;
+
+    /**
+     * @param tolerance stop once the residual norm of the ritz pair is below this (bounds the error of the eigenvalue)
+     * @param basisSize maximum number of lanczos vectors kept before restarting from the current ritz vector
+     * @param maxIterations maximum number of matrix vector products in total
+     */
+    public LanczosSolver(double tolerance, int basisSize, int maxIterations) {
+        if (tolerance <= 0 || basisSize < 2 || maxIterations < 1)
+            throw new IllegalArgumentException(String.format("invalid lanczos parameters: tolerance %g, basis size %d, iterations %d", tolerance, basisSize, maxIterations));
+        this.tolerance = tolerance;
+        this.basisSize = basisSize;
+        this.maxIterations = maxIterations;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * @return second smallest eigenvalue of normalized laplacian of g, Double.MAX_VALUE if g has less than two nodes
+     *         (same conventions as the dense computation, nodes with degree 0 have a 0 on the diagonal)
+     */
+    public double getFiedlerValue(Graph g) {
+        return getFiedlerValue(g, null, null);
+    }
+
+    /**
+     * fiedler vectors are exchanged as x = D^-1/2 y for the eigenvector y of the normalized laplacian, which doesn't
+     * depend on degrees as much, so the vector of a subgraph is a good start for a graph containing it
+     * @param start approximate fiedler vector x to start from, by node id; null for a random start
+     * @param vector if not null, receives the fiedler vector x, scaled to x^T D x = 1
+     * @return see getFiedlerValue(Graph)
+     */
+    public double getFiedlerValue(Graph g, float[] start, float[] vector) {
+        final int n = g.getNodeCount();
+        if (n < 2)
+            return Double.MAX_VALUE;
+
+        // copy adjacency once so matrix vector products are plain array scans
+        int[] degrees = new int[n];
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            degrees[i] = g.getDegree(i);
+            offsets[i + 1] = offsets[i] + degrees[i];
+        }
+        int[] targets = new int[offsets[n]];
+        for (int i = 0; i < n; i++) {
+            int[] pos = {offsets[i]};
+            g.forEachNeighbor(i, j -> targets[pos[0]++] = j);
+        }
+
+        double[] invSqrtDegrees = new double[n];
+        double[] trivial = new double[n];
+        double volume = 0;
+        for (int i = 0; i < n; i++) {
+            volume += degrees[i];
+            if (degrees[i] > 0) {
+                invSqrtDegrees[i] = 1 / Math.sqrt(degrees[i]);
+                trivial[i] = Math.sqrt(degrees[i]);
+            }
+        }
+        // no edges at all: laplacian is the zero matrix
+        if (volume == 0)
+            return 0;
+        scale(trivial, 1 / Math.sqrt(volume));
+
+        Operator laplacian = new Operator(offsets, targets, invSqrtDegrees);
+
+        // deterministic start vector, so results are reproducible
+        SplittableRandom random = new SplittableRandom(n);
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++)
+            x[i] = random.nextDouble() - 0.5;
+        if (start != null) {
+            double[] y = new double[n];
+            for (int i = 0; i < n; i++)
+                y[i] = start[i] * trivial[i];
+            orthogonalize(y, trivial);
+            double norm = norm(y);
+            // keep a little noise, so no component of the fiedler vector is missing from the start
+            if (norm > 0)
+                for (int i = 0; i < n; i++)
+                    x[i] = y[i] / norm + 1e-3 * x[i];
+        }
+
+        double[] ritz = vector == null ? null : new double[n];
+        double value = solve(laplacian, trivial, x, ritz);
+        if (vector != null)
+            for (int i = 0; i < n; i++)
+                vector[i] = (float) (ritz[i] * invSqrtDegrees[i]);
+        return value;
+    }
+
+    /**
+     * explicitly restarted lanczos: build up to basisSize vectors, restart from the ritz vector if not converged
+     * @param ritz if not null, receives the unit ritz vector of the returned value
+     */
+    private double solve(Operator op, double[] trivial, double[] start, double[] ritz) {
+        final int n = trivial.length;
+        final int k = Math.min(basisSize, n - 1);
+        double[][] q = new double[k][];
+        double[] alpha = new double[k];
+        double[] beta = new double[k];
+        double theta = Double.MAX_VALUE;
+        int iterations = 0;
+
+        double[] x = start;
+        while (iterations < maxIterations) {
+            orthogonalize(x, trivial);
+            double norm = norm(x);
+            if (norm == 0)
+                return theta == Double.MAX_VALUE ? 0 : theta;
+            scale(x, 1 / norm);
+
+            int m = 0;
+            double[] s = null;
+            double residual = Double.MAX_VALUE;
+            q[0] = x;
+            while (m < k && iterations < maxIterations) {
+                double[] w = new double[n];
+                op.apply(q[m], w);
+                iterations++;
+
+                alpha[m] = dot(q[m], w);
+                // full reorthogonalization (twice is enough), also against the trivial eigenvector
+                for (int pass = 0; pass < 2; pass++) {
+                    orthogonalize(w, trivial);
+                    for (int j = 0; j <= m; j++)
+                        orthogonalize(w, q[j]);
+                }
+                beta[m] = norm(w);
+                m++;
+
+                theta = smallestEigenvalue(alpha, beta, m);
+                s = eigenvector(alpha, beta, m, theta);
+                residual = beta[m - 1] * Math.abs(s[m - 1]);
+
+                // breakdown means the krylov space is invariant, theta is exact
+                if (residual < tolerance || beta[m - 1] < 1e-12) {
+                    if (ritz != null)
+                        combine(q, s, m, ritz);
+                    return theta;
+                }
+                if (m < k)
+                    q[m] = scale(w, 1 / beta[m - 1]);
+            }
+
+            // restart from ritz vector
+            x = new double[n];
+            combine(q, s, m, x);
+        }
+
+        if (ritz != null)
+            System.arraycopy(x, 0, ritz, 0, n);
+        return theta;
+    }
+
+    /**
+     * x = sum of s[j] * q[j] for j < m
+     */
+    private static void combine(double[][] q, double[] s, int m, double[] x) {
+        Arrays.fill(x, 0);
+        for (int j = 0; j < m; j++)
+            axpy(s[j], q[j], x);
+    }
+
+    /**
+     * y = L x for the normalized laplacian, nodes of degree 0 have an empty row
+     */
+    private static class Operator {
+        final int[] offsets;
+        final int[] targets;
+        final double[] invSqrtDegrees;
+
+        Operator(int[] offsets, int[] targets, double[] invSqrtDegrees) {
+            this.offsets = offsets;
+            this.targets = targets;
+            this.invSqrtDegrees = invSqrtDegrees;
+        }
+
+        void apply(double[] x, double[] y) {
+            for (int i = 0; i < invSqrtDegrees.length; i++) {
+                if (invSqrtDegrees[i] == 0) {
+                    y[i] = 0;
+                    continue;
+                }
+                double sum = 0;
+                for (int p = offsets[i]; p < offsets[i + 1]; p++) {
+                    int j = targets[p];
+                    if (j != i)
+                        sum += x[j] * invSqrtDegrees[j];
+                }
+                y[i] = x[i] - sum * invSqrtDegrees[i];
+            }
+        }
+    }
+
+    /**
+     * smallest eigenvalue of symmetric tridiagonal matrix (alpha on diagonal, beta off diagonal) of size m,
+     * bisection on sturm sequence counts
+     */
+    static double smallestEigenvalue(double[] alpha, double[] beta, int m) {
+        // gershgorin bounds
+        double lo = Double.MAX_VALUE;
+        double hi = -Double.MAX_VALUE;
+        for (int i = 0; i < m; i++) {
+            double radius = (i > 0 ? Math.abs(beta[i - 1]) : 0) + (i < m - 1 ? Math.abs(beta[i]) : 0);
+            lo = Math.min(lo, alpha[i] - radius);
+            hi = Math.max(hi, alpha[i] + radius);
+        }
+        double eps = 1e-15 * Math.max(1, Math.max(Math.abs(lo), Math.abs(hi)));
+        while (hi - lo > eps) {
+            double mid = (lo + hi) / 2;
+            if (mid == lo || mid == hi)
+                break;
+            if (countBelow(alpha, beta, m, mid) >= 1)
+                hi = mid;
+            else
+                lo = mid;
+        }
+        return (lo + hi) / 2;
+    }
+
+    /**
+     * @return number of eigenvalues of the tridiagonal matrix smaller than x
+     */
+    private static int countBelow(double[] alpha, double[] beta, int m, double x) {
+        int count = 0;
+        double d = 1;
+        for (int i = 0; i < m; i++) {
+            double b = i > 0 ? beta[i - 1] : 0;
+            d = alpha[i] - x - (i > 0 ? b * b / d : 0);
+            if (d == 0)
+                d = 1e-300;
+            if (d < 0)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * normalized eigenvector of tridiagonal matrix for eigenvalue theta, two steps of inverse iteration
+     */
+    static double[] eigenvector(double[] alpha, double[] beta, int m, double theta) {
+        double[] s = new double[m];
+        Arrays.fill(s, 1);
+        double shift = theta - 1e-10 * Math.max(1, Math.abs(theta));
+        for (int step = 0; step < 2; step++) {
+            s = solveTridiagonal(alpha, beta, m, shift, s);
+            scale(s, 1 / norm(s));
+        }
+        return s;
+    }
+
+    /**
+     * solve (T - shift I) x = b with gaussian elimination and partial pivoting, T symmetric tridiagonal
+     */
+    private static double[] solveTridiagonal(double[] alpha, double[] beta, int m, double shift, double[] b) {
+        // u0 diagonal, u1 and u2 superdiagonals of U after pivoting
+        double[] u0 = new double[m];
+        double[] u1 = new double[m];
+        double[] u2 = new double[m];
+        double[] rhs = b.clone();
+        for (int i = 0; i < m; i++) {
+            u0[i] = alpha[i] - shift;
+            u1[i] = i < m - 1 ? beta[i] : 0;
+        }
+        for (int i = 0; i < m - 1; i++) {
+            double sub = beta[i];
+            if (Math.abs(sub) > Math.abs(u0[i])) {
+                // swap rows i and i + 1
+                double nextDiag = alpha[i + 1] - shift;
+                double nextSuper = i + 1 < m - 1 ? beta[i + 1] : 0;
+                double factor = u0[i] / sub;
+                double t0 = u1[i];
+                u0[i] = sub;
+                u1[i] = nextDiag;
+                u2[i] = nextSuper;
+                u0[i + 1] = t0 - factor * nextDiag;
+                u1[i + 1] = -factor * nextSuper;
+                double tr = rhs[i];
+                rhs[i] = rhs[i + 1];
+                rhs[i + 1] = tr - factor * rhs[i];
+            } else {
+                if (u0[i] == 0)
+                    u0[i] = 1e-300;
+                double factor = sub / u0[i];
+                u0[i + 1] -= factor * u1[i];
+                rhs[i + 1] -= factor * rhs[i];
+            }
+        }
+        double[] x = new double[m];
+        for (int i = m - 1; i >= 0; i--) {
+            double sum = rhs[i];
+            if (i + 1 < m)
+                sum -= u1[i] * x[i + 1];
+            if (i + 2 < m)
+                sum -= u2[i] * x[i + 2];
+            x[i] = sum / (u0[i] == 0 ? 1e-300 : u0[i]);
+        }
+        return x;
+    }
+
+    /** removes component along unit vector v from x */
+    private static void orthogonalize(double[] x, double[] v) {
+        axpy(-dot(x, v), v, x);
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++)
+            sum += a[i] * b[i];
+        return sum;
+    }
+
+    private static double norm(double[] a) {
+        return Math.sqrt(dot(a, a));
+    }
+
+    private static double[] scale(double[] a, double factor) {
+        for (int i = 0; i < a.length; i++)
+            a[i] *= factor;
+        return a;
+    }
+
+    /** y += factor * x */
+    private static void axpy(double factor, double[] x, double[] y) {
+        for (int i = 0; i < x.length; i++)
+            y[i] += factor * x[i];
+    }
+}
@@ -0,0 +1,110 @@
+package graph;
+
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * read only compressed sparse row graph over int buffers, usually views of a memory mapped file
+ * neighbors of node i are targets[offsets[i]] ... targets[offsets[i+1] - 1], nothing is copied onto the heap
+ */
+public class MappedGraph extends Graph {
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+    private final boolean sorted;
+
+    /**
+     * unsafe; no integrity checks done
+     * @param offsets n + 1 row offsets into targets
+     * @param targets neighbors of all nodes, row by row
+     * @param sorted whether every row is in ascending order, hasEdge uses binary search then
+     */
+    public MappedGraph(IntBuffer offsets, IntBuffer targets, boolean sorted) {
+        super(offsets.limit() - 1);
+        this.offsets = offsets;
+        this.targets = targets;
+        this.sorted = sorted;
+        this.e = offsets.get(n);
+    }
+
+    /**
+     * @return read only view of neighbors of node
+     */
+    @Override
+    public List<Integer> getNeighbors(int node) {
+        if (!hasNode(node))
+            throw new IllegalArgumentException(String.format("cannot get neighbors: %d-node graph %s does not contain node %d", getNodeCount(), getName(), node));
+        final int start = offsets.get(node);
+        final int size = offsets.get(node + 1) - start;
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                if (index < 0 || index >= size)
+                    throw new IndexOutOfBoundsException(String.format("index %d out of bounds for %d neighbors", index, size));
+                return targets.get(start + index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public void forEachNeighbor(int node, IntConsumer action) {
+        if (!hasNode(node))
+            throw new IllegalArgumentException(String.format("cannot get neighbors: %d-node graph %s does not contain node %d", getNodeCount(), getName(), node));
+        for (int i = offsets.get(node), end = offsets.get(node + 1); i < end; i++)
+            action.accept(targets.get(i));
+    }
+
+    @Override
+    public int getDegree(int node) {
+        if (!hasNode(node))
+            throw new IllegalArgumentException(String.format("cannot get degree: %d-node graph %s does not contain node %d", getNodeCount(), getName(), node));
+        return offsets.get(node + 1) - offsets.get(node);
+    }
+
+    @Override
+    public boolean addEdge(int nodeFrom, int nodeTo) {
+        throw new UnsupportedOperationException("cannot add edge to memory mapped graph");
+    }
+
+    @Override
+    public boolean hasEdge(int nodeFrom, int nodeTo) {
+        if(hasNode(nodeFrom) && hasNode(nodeTo)) {
+            if (hubs != null && hubs.isHub(nodeFrom))
+                return hubs.hasEdge(nodeFrom, nodeTo);
+            int lo = offsets.get(nodeFrom), hi = offsets.get(nodeFrom + 1) - 1;
+            if (!sorted) {
+                for (int i = lo; i <= hi; i++)
+                    if (targets.get(i) == nodeTo)
+                        return true;
+                return false;
+            }
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int target = targets.get(mid);
+                if (target < nodeTo)
+                    lo = mid + 1;
+                else if (target > nodeTo)
+                    hi = mid - 1;
+                else
+                    return true;
+            }
+            return false;
+        } else
+            throw new IllegalArgumentException(String.format("cannot add edge: %d-node graph %s does not contain node %d or %d", getNodeCount(), getName(), nodeFrom, nodeTo));
+    }
+
+    @Override
+    public double[][] toMatrix() {
+        double[][] mat = new double[n][n];
+        for (int i = 0; i < n; i++)
+            for (int j = offsets.get(i), end = offsets.get(i + 1); j < end; j++)
+                mat[i][targets.get(j)] = 1;
+        return mat;
+    }
+}
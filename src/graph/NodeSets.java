@@ -0,0 +1,139 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * set operations on duplicate free node id arrays sorted in ascending order
+ * arrays of very different length are searched instead of merged; when one set is tested against many others,
+ * turning it into a bitset once makes every test linear in the size of the other set only
+ */
+public class NodeSets {
+    /** if one array is this many times longer than the other, binary search the long one instead of merging */
+    private static final int SEARCH_RATIO = 32;
+    /** sets with at least this many nodes are worth converting to a bitset if they are tested repeatedly */
+    public static final int BITSET_THRESHOLD = 1024;
+
+    /**
+     * @return number of elements of a that are contained in b
+     */
+    public static int intersectionSize(int[] a, int[] b) {
+        if (a.length > SEARCH_RATIO * b.length)
+            return intersectionSize(b, a);
+        if (b.length > SEARCH_RATIO * a.length) {
+            int count = 0;
+            for (int node : a)
+                if (contains(b, node))
+                    count++;
+            return count;
+        }
+
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; )
+            if (a[i] < b[j])
+                i++;
+            else if (a[i] > b[j])
+                j++;
+            else {
+                count++;
+                i++;
+            }
+        return count;
+    }
+
+    /**
+     * @return elements of a that are contained in b, in ascending order
+     */
+    public static int[] intersection(int[] a, int[] b) {
+        return select(a, b, true);
+    }
+
+    /**
+     * @return elements of a that are not contained in b, in ascending order
+     */
+    public static int[] difference(int[] a, int[] b) {
+        return select(a, b, false);
+    }
+
+    /**
+     * @return elements of a that are (not) contained in b
+     */
+    private static int[] select(int[] a, int[] b, boolean contained) {
+        int[] result = new int[a.length];
+        int size = 0;
+        if (b.length > SEARCH_RATIO * a.length) {
+            for (int node : a)
+                if (contains(b, node) == contained)
+                    result[size++] = node;
+        } else {
+            int j = 0;
+            for (int node : a) {
+                while (j < b.length && b[j] < node)
+                    j++;
+                if ((j < b.length && b[j] == node) == contained)
+                    result[size++] = node;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return elements of both a and b without repetitions, in ascending order
+     */
+    public static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int size = 0;
+        int i = 0, j = 0;
+        while (i < a.length || j < b.length) {
+            int next;
+            if (j == b.length || (i < a.length && a[i] <= b[j]))
+                next = a[i++];
+            else
+                next = b[j++];
+            if (size == 0 || result[size - 1] != next)
+                result[size++] = next;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @param a node ids, need not be sorted
+     * @return bitset with the bits of all node ids in a set
+     */
+    public static BitSet toBitSet(int[] a) {
+        BitSet set = new BitSet(a.length == 0 ? 0 : a[a.length - 1] + 1);
+        for (int node : a)
+            set.set(node);
+        return set;
+    }
+
+    /**
+     * @return number of elements of a that are contained in b
+     */
+    public static int intersectionSize(int[] a, BitSet b) {
+        int count = 0;
+        for (int node : a)
+            if (b.get(node))
+                count++;
+        return count;
+    }
+
+    /**
+     * @return elements of a that are not contained in b, in the order of a
+     */
+    public static int[] difference(int[] a, BitSet b) {
+        int[] result = new int[a.length];
+        int size = 0;
+        for (int node : a)
+            if (!b.get(node))
+                result[size++] = node;
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @param sorted node ids in ascending order
+     */
+    public static boolean contains(int[] sorted, int node) {
+        return Arrays.binarySearch(sorted, node) >= 0;
+    }
+}
@@ -1,85 +1,323 @@
 package index;
 
+import graph.CommunityStore;
 import graph.Graph;
 import graph.InducedSubgraph;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
+/**
+ * maps a node id to the handles of the communities containing that node, sorted by size, then by handle
+ * postings are compressed sparse rows, 4 bytes per posting: the handles of node i are handles[offsets[i]] to
+ * handles[offsets[i + 1] - 1]. merges don't rewrite them; a merged community goes to small per node delta buffers,
+ * copy on write arrays written while holding the lock stripe of the node, and the communities it replaces are
+ * skipped as retired when reading. once there are as many changed postings as postings, buffers and postings are
+ * merged into new postings, while no update runs
+ * readers work on a snapshot without locking; it may contain communities that have been merged in the meantime,
+ * those are retired and can't be locked. communities live in a CommunityStore, subgraphs handed out are views
+ */
 public class InverseIndex {
-    private ArrayList<InducedSubgraph>[] index;
-    private ArrayList<InducedSubgraph> source;
+    private static final int[] EMPTY = new int[0];
+    private static final int STRIPES = 4096;
+    /** rebuild for no less than this many changed postings */
+    private static final long MIN_CHANGES = 1 << 16;
+
+    /** postings and the delta buffers of merges since they were built; replaced as a whole by a rebuild */
+    private static final class Postings {
+        final int[] offsets;
+        final int[] handles;
+        // added[node]: handles of merged communities containing node, sorted like the postings; null for none
+        final int[][] added;
+
+        Postings(int[] offsets, int[] handles, int n) {
+            this.offsets = offsets;
+            this.handles = handles;
+            this.added = new int[n][];
+        }
+    }
+
+    private final CommunityStore store;
+    private final int n;
+    private volatile Postings postings;
+    private final Object[] stripes;
+    // updates share the read lock, a rebuild takes the write lock
+    private final ReentrantReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+    private final AtomicLong changes = new AtomicLong();
+    private Consumer<MergeCandidate> mergeListener;
 
     /**
-     * construct an inverse index mapping a node id to arraylist of subgraphs containing that node
+     * construct an inverse index of subgraphs, which are moved into a new store in the given order
      */
-    public InverseIndex(Graph main, ArrayList<InducedSubgraph> subgraphs) {
-        index = new ArrayList[main.getNodeCount()];
-        source = subgraphs;
+    public InverseIndex(Graph main, Collection<InducedSubgraph> subgraphs) {
+        this(adoptAll(main, subgraphs));
+    }
 
-        for (int i = 0; i < index.length; i++)
-            index[i] = new ArrayList<>();
+    /**
+     * construct an inverse index of the live communities of store
+     */
+    public InverseIndex(CommunityStore store) {
+        this.store = store;
+        this.n = store.getGraph().getNodeCount();
+        stripes = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Object();
 
+        // count, then fill in order of handles, then sort by size
+        int count = store.getHandleCount();
+        int[] offsets = new int[n + 1];
+        long total = 0;
+        for (int h = 0; h < count; h++)
+            if (!store.isRetired(h)) {
+                for (int node : store.view(h).getSortedNodes())
+                    offsets[node + 1]++;
+                total += store.getNodeCount(h);
+            }
+        if (total > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException(String.format("%d postings are too many for an inverse index", total));
+        for (int i = 0; i < n; i++)
+            offsets[i + 1] += offsets[i];
+
+        int[] handles = new int[(int) total];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int h = 0; h < count; h++)
+            if (!store.isRetired(h))
+                for (int node : store.view(h).getSortedNodes())
+                    handles[fill[node]++] = h;
+        long[] keys = new long[0];
+        for (int i = 0; i < n; i++) {
+            int length = offsets[i + 1] - offsets[i];
+            if (keys.length < length)
+                keys = new long[Math.max(length, 2 * keys.length)];
+            sortBySize(handles, offsets[i], length, keys);
+        }
+        postings = new Postings(offsets, handles, n);
+    }
+
+    private static CommunityStore adoptAll(Graph main, Collection<InducedSubgraph> subgraphs) {
+        CommunityStore store = new CommunityStore(main);
         for (InducedSubgraph s : subgraphs)
-            for (int node : s.toNodeList())
-                index[node].add(s);
+            store.adopt(s);
+        return store;
+    }
+
+    private void sortBySize(int[] handles, int from, int length, long[] keys) {
+        if (length < 2)
+            return;
+        // size in the high half, handle in the low half
+        for (int i = 0; i < length; i++)
+            keys[i] = (long) store.getNodeCount(handles[from + i]) << 32 | handles[from + i];
+        Arrays.sort(keys, 0, length);
+        for (int i = 0; i < length; i++)
+            handles[from + i] = (int) keys[i];
+    }
+
+    /**
+     * @return true if handle a comes before handle b in a bucket
+     */
+    private boolean before(int a, int b) {
+        int sizeA = store.getNodeCount(a), sizeB = store.getNodeCount(b);
+        return sizeA < sizeB || sizeA == sizeB && a < b;
+    }
 
-        for (ArrayList<InducedSubgraph> al : index)
-            Collections.sort(al);
+    public CommunityStore getStore() {
+        return store;
     }
 
     /**
-     * find two unlocked overlapping subgraphs, lock them,
-     * @return new MergeCandidate with two random overlapping subgraphs
+     * find an unlocked subgraph overlapping with others and lock it
+     * @return new MergeCandidate with a random subgraph and the others sharing a random node with it
      */
     public MergeCandidate getCandidate() {
-        synchronized (this) {
-            while (true) {
-                ArrayList<InducedSubgraph> overlappingSubgraphs = index[(int) Math.floor(Math.random() * index.length)];
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        while (true) {
+            int[] overlapping = getHandles(rnd.nextInt(n));
 
-                if(overlappingSubgraphs.size() == 0)
-                    continue;
+            if(overlapping.length == 0)
+                continue;
 
-                int randIndex1 = (int) Math.floor(Math.random() * overlappingSubgraphs.size());
+            int a = overlapping[rnd.nextInt(overlapping.length)];
 
-                InducedSubgraph a = overlappingSubgraphs.get(randIndex1);
+            if (!store.tryLock(a))
+                continue;
 
-                if (!a.getLock().tryLock()) {
-                    continue;
-                }
+            return new MergeCandidate(store.view(a), store, overlapping);
+        }
+    }
 
-                return new MergeCandidate(a, overlappingSubgraphs);
-            }
+    /**
+     * @param listener called by update for every merge, before the merged subgraph is visible to other threads,
+     *                 so merges involving it are reported after it; null to remove. set before merging starts
+     */
+    public void setMergeListener(Consumer<MergeCandidate> listener) {
+        mergeListener = listener;
+    }
+
+    /**
+     * @return snapshot of handles of communities containing node, sorted by size; merges the postings of node with
+     *         its delta buffer, skipping retired communities
+     */
+    public int[] getHandles(int node) {
+        Postings p = postings;
+        int[] added;
+        synchronized (stripes[node & (STRIPES - 1)]) {
+            added = p.added[node];
+        }
+        return live(p, node, added);
+    }
+
+    private int[] live(Postings p, int node, int[] added) {
+        int from = p.offsets[node], to = p.offsets[node + 1];
+        int length = to - from + (added == null ? 0 : added.length);
+        if (length == 0)
+            return EMPTY;
+        int[] result = new int[length];
+        length = copyLive(p, node, added, result, 0);
+        return length == result.length ? result : Arrays.copyOf(result, length);
+    }
+
+    /**
+     * merge the handles of postings and delta buffer of node that are not retired into target from position start
+     * @return position after the last handle copied
+     */
+    private int copyLive(Postings p, int node, int[] added, int[] target, int start) {
+        int i = p.offsets[node], to = p.offsets[node + 1];
+        int j = 0, addedLength = added == null ? 0 : added.length;
+        int k = start;
+        while (i < to || j < addedLength) {
+            int h = j == addedLength || i < to && before(p.handles[i], added[j]) ? p.handles[i++] : added[j++];
+            if (!store.isRetired(h))
+                target[k++] = h;
         }
+        return k;
+    }
+
+    private int countLive(Postings p, int node) {
+        int count = 0;
+        for (int i = p.offsets[node]; i < p.offsets[node + 1]; i++)
+            if (!store.isRetired(p.handles[i]))
+                count++;
+        if (p.added[node] != null)
+            for (int h : p.added[node])
+                if (!store.isRetired(h))
+                    count++;
+        return count;
+    }
+
+    /**
+     * @return views of the communities containing node, sorted by size
+     */
+    public InducedSubgraph[] getSubgraphs(int node) {
+        int[] handles = getHandles(node);
+        InducedSubgraph[] subgraphs = new InducedSubgraph[handles.length];
+        for (int i = 0; i < handles.length; i++)
+            subgraphs[i] = store.view(handles[i]);
+        return subgraphs;
     }
 
     /**
-     * remove pair from index, add merged graph in their places, sustain sorting
-     * @param pair
+     * replace pair in index by merged graph, sustain sorting; a and b of pair are retired, merged is added to the store
+     * both a and b need to be locked by the caller
      */
     public void update(MergeCandidate pair) {
-        synchronized (this) {
-            for (int i = 0; i < pair.a.getNodeCount(); i++)
-                synchronized (index[pair.a.getOriginalNodeID(i)]) {
-                    index[pair.a.getOriginalNodeID(i)].remove(pair.a);
-                }
-            for (int i = 0; i < pair.b.getNodeCount(); i++)
-                synchronized (index[pair.b.getOriginalNodeID(i)]) {
-                    index[pair.b.getOriginalNodeID(i)].remove(pair.b);
-                }
-            for (int i = 0; i < pair.merged.getNodeCount(); i++) {
-                int originalId = pair.merged.getOriginalNodeID(i);
-                synchronized (index[originalId]) {
-                    int insertionIndex = 0;
-                    while (insertionIndex < index[originalId].size() && pair.merged.compareTo(index[originalId].get(insertionIndex)) >= 0)
-                        insertionIndex++;
-                    index[originalId].add(insertionIndex, pair.merged);
+        if (pair.a.getStore() != store || pair.b.getStore() != store)
+            throw new IllegalArgumentException("merge of communities not in this index");
+        // other threads find merged in the buckets written first; were it merged away before the rest are written,
+        // it would be inserted into them after its removal
+        if (!pair.merged.tryLock())
+            throw new IllegalArgumentException("merged subgraph is locked");
+        store.adopt(pair.merged);
+        if (mergeListener != null)
+            mergeListener.accept(pair);
+
+        int merged = pair.merged.getHandle();
+        rebuildLock.readLock().lock();
+        try {
+            Postings p = postings;
+            for (int node : pair.merged.getSortedNodes())
+                synchronized (stripes[node & (STRIPES - 1)]) {
+                    p.added[node] = insert(p.added[node], merged);
                 }
-            }
+            pair.a.retire();
+            pair.b.retire();
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+        pair.merged.unlock();
+
+        // postings of a and b are dead now, those of merged are in the delta buffers
+        changes.addAndGet(pair.a.getNodeCount() + pair.b.getNodeCount() + pair.merged.getNodeCount());
+        if (needsRebuild())
+            rebuild(false);
+    }
+
+    private boolean needsRebuild() {
+        return changes.get() > Math.max(MIN_CHANGES, postings.handles.length);
+    }
 
-            source.remove(pair.a);
-            source.remove(pair.b);
-            source.add(pair.merged);
+    /**
+     * @return copy of delta buffer with merged inserted at its place in size order; linear in the buffer only
+     */
+    private int[] insert(int[] added, int merged) {
+        if (added == null)
+            return new int[]{merged};
+        int[] result = new int[added.length + 1];
+        int i = added.length;
+        // merged has the largest handle so far, so it goes behind the communities of the same size
+        while (i > 0 && before(merged, added[i - 1])) {
+            result[i] = added[i - 1];
+            i--;
         }
+        result[i] = merged;
+        System.arraycopy(added, 0, result, 0, i);
+        return result;
+    }
+
+    /**
+     * merge the delta buffers into new postings, dropping retired communities; waits for running updates and
+     * holds off new ones meanwhile, readers keep using the old postings
+     */
+    public void rebuild() {
+        rebuild(true);
+    }
+
+    /**
+     * @param force rebuild if anything changed; otherwise only if still needed, threads that crossed the threshold
+     *              together each get here, but the first rebuild does for all of them
+     */
+    private void rebuild(boolean force) {
+        rebuildLock.writeLock().lock();
+        try {
+            if (force ? changes.get() == 0 : !needsRebuild())
+                return;
+            Postings p = postings;
+            int[] offsets = new int[n + 1];
+            // no update runs, so no community is retired between counting and copying
+            long total = 0;
+            for (int node = 0; node < n; node++) {
+                total += countLive(p, node);
+                if (total > Integer.MAX_VALUE - 8)
+                    throw new IllegalStateException(String.format("more than %d postings, too many for an inverse index", total));
+                offsets[node + 1] = (int) total;
+            }
+            int[] handles = new int[(int) total];
+            for (int node = 0; node < n; node++)
+                copyLive(p, node, p.added[node], handles, offsets[node]);
+            postings = new Postings(offsets, handles, n);
+            changes.set(0);
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return view of all communities that have not been merged into others, in order of their handles
+     */
+    public Collection<InducedSubgraph> getCommunities() {
+        return store.communities();
     }
 }
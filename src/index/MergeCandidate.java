@@ -1,27 +1,151 @@
 package index;
 
+import graph.CommunityStore;
 import graph.InducedSubgraph;
+import graph.NodeSets;
 import tasks.MergeOverlappingCommunities;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class MergeCandidate {
     public InducedSubgraph a;
     public InducedSubgraph b;
     public InducedSubgraph merged;
 
-    private final ArrayList<InducedSubgraph> source;
+    // partners are source[i], or views of handles[i] in store created when they are reached
+    private final InducedSubgraph[] source;
+    private final CommunityStore store;
+    private final int[] handles;
     private int currentIndex;
+    private BitSet nodesOfA;
 
-    // a is already locked
-    public MergeCandidate(InducedSubgraph a, ArrayList<InducedSubgraph> source) {
-        currentIndex = 0;
+    /**
+     * a is already locked
+     * @param source snapshot of subgraphs to pair a with, not modified
+     */
+    public MergeCandidate(InducedSubgraph a, InducedSubgraph[] source) {
+        currentIndex = -1;
         this.a = a;
         this.source = source;
+        this.store = null;
+        this.handles = null;
+    }
+
+    /**
+     * a is already locked and a view of store
+     * @param handles snapshot of handles of communities to pair a with, not modified
+     */
+    public MergeCandidate(InducedSubgraph a, CommunityStore store, int[] handles) {
+        currentIndex = -1;
+        this.a = a;
+        this.source = null;
+        this.store = store;
+        this.handles = handles;
+    }
+
+    public MergeCandidate(InducedSubgraph a, List<InducedSubgraph> source) {
+        this(a, source.toArray(new InducedSubgraph[0]));
+    }
+
+    /**
+     * candidate without a source, partners are set with pairWith; neither a nor b is locked
+     */
+    public MergeCandidate(InducedSubgraph a) {
+        this(a, new InducedSubgraph[0]);
+    }
+
+    /**
+     * pair of a and b sharing the other's bitset of a, which is read only
+     */
+    private MergeCandidate(MergeCandidate other, InducedSubgraph b) {
+        this(other.a);
+        this.b = b;
+        this.nodesOfA = other.nodesOfA;
+    }
+
+    public int getSourceSize() {
+        return source != null ? source.length : handles.length;
+    }
+
+    /**
+     * @return true if next or nextBest have not reached the end of the source
+     */
+    public boolean hasNext() {
+        return currentIndex + 1 < getSourceSize();
+    }
+
+    /**
+     * @return whether the i-th partner of the source is neither a nor retired; tells for handles without a view
+     */
+    private boolean isPartner(int i) {
+        if (source != null)
+            return !source[i].equals(a) && !source[i].isRetired();
+        return handles[i] != a.getHandle() && !store.isRetired(handles[i]);
+    }
+
+    private InducedSubgraph partner(int i) {
+        return source != null ? source[i] : store.view(handles[i]);
+    }
+
+    /**
+     * evaluate the next k partners of the source that are neither a nor retired, without locking them;
+     * repeated calls work through the whole source
+     * @param parallel evaluate the partners concurrently
+     * @return pairs of a with these partners that are mergeable, largest delta first; b is not locked, merged is created
+     */
+    public List<MergeCandidate> nextBest(int k, Predicate<MergeCandidate> mergeable, boolean parallel) {
+        ArrayList<MergeCandidate> pairs = new ArrayList<>(Math.min(k, getSourceSize()));
+        while (pairs.size() < k && ++currentIndex < getSourceSize())
+            if (isPartner(currentIndex))
+                pairs.add(new MergeCandidate(this, partner(currentIndex)));
+        if (pairs.isEmpty())
+            return pairs;
+        // shared by all pairs, so build it before they are evaluated
+        if (a.getNodeCount() >= NodeSets.BITSET_THRESHOLD && nodesOfA == null) {
+            nodesOfA = NodeSets.toBitSet(a.getSortedNodes());
+            for (MergeCandidate pair : pairs)
+                pair.nodesOfA = nodesOfA;
+        }
+
+        Stream<MergeCandidate> stream = parallel && pairs.size() > 1 ? pairs.parallelStream() : pairs.stream();
+        List<MergeCandidate> result = stream.filter(mergeable).collect(Collectors.toList());
+        for (MergeCandidate pair : result)
+            if (pair.merged == null)
+                pair.createMerged();
+        // stable, ties are kept in source order
+        result.sort(Comparator.comparingDouble((MergeCandidate pair) -> pair.getDelta()).reversed());
+        return result;
+    }
+
+    /**
+     * take over b and merged of pair, a pair of the same a returned by nextBest, if b can be locked;
+     * unlocks previous b
+     * @return false if b has been locked by another thread or retired in the meantime
+     */
+    public boolean lock(MergeCandidate pair) {
+        assert pair.a == a : "pair of another subgraph";
+        if (!pair.b.tryLock())
+            return false;
+        if (b != null)
+            b.unlock();
+        b = pair.b;
+        merged = pair.merged;
+        return true;
     }
 
     public boolean nodesOverlapping(double moreThan) {
-        return a.getNodeOverlapPercent(b) >= moreThan;
+        if (a.getNodeCount() < NodeSets.BITSET_THRESHOLD)
+            return a.getNodeOverlapPercent(b) >= moreThan;
+        // a is tested against every b, so for large a look up b's nodes in a bitset of a instead of merging
+        if (nodesOfA == null)
+            nodesOfA = NodeSets.toBitSet(a.getSortedNodes());
+        return (double) NodeSets.intersectionSize(b.getSortedNodes(), nodesOfA) / a.getNodeCount() >= moreThan;
     }
 
     public boolean edgesOverlapping(double moreThan) {
@@ -33,21 +157,32 @@ public class MergeCandidate {
     }
 
     /**
-     * find next suitable graph, that is, not a and not locked; locks graph, unlocks previous graph
+     * find next suitable graph, that is, not a and not locked or retired; locks graph, unlocks previous graph
+     * works on a snapshot, so no synchronization is needed
      * @return true if suitable next was found, false if end of list has been reached
      */
     public boolean next() {
-        synchronized (source) {
-            while (++currentIndex < source.size())
-                if (source.get(currentIndex) != a && source.get(currentIndex).getLock().tryLock()) {
-                    if (b != null)
-                        b.getLock().unlock();
-                    b = source.get(currentIndex);
-                    merged = null;
-                    return true;
-                }
-            return false;
+        while (++currentIndex < getSourceSize()) {
+            if (!isPartner(currentIndex))
+                continue;
+            InducedSubgraph partner = partner(currentIndex);
+            if (partner.tryLock()) {
+                if (b != null)
+                    b.unlock();
+                b = partner;
+                merged = null;
+                return true;
+            }
         }
+        return false;
+    }
+
+    /**
+     * pair a with b without locking b, for callers that don't merge concurrently
+     */
+    public void pairWith(InducedSubgraph b) {
+        this.b = b;
+        merged = null;
     }
 
     public double getMergedEv() {
@@ -57,22 +192,55 @@ public class MergeCandidate {
     }
 
     public double getDelta() {
+        return getDelta(getMergedEv());
+    }
+
+    /**
+     * @param mergedEv eigenvalue of merged, or an upper bound on it for an upper bound on the delta
+     */
+    public double getDelta(double mergedEv) {
         switch (MergeOverlappingCommunities.evCompareStrategy) {
             case 1: // delta := 2 * merged - a - b
-                return 2 * getMergedEv() - a.getEigenvalue() - b.getEigenvalue();
+                return 2 * mergedEv - a.getEigenvalue() - b.getEigenvalue();
             default: // delta := merged - larger of both
-                return getMergedEv() - (a.getNodeCount() > b.getNodeCount() ? a.getEigenvalue() : b.getEigenvalue());
+                return mergedEv - (a.getNodeCount() > b.getNodeCount() ? a.getEigenvalue() : b.getEigenvalue());
 
         }
     }
 
+    /**
+     * @return upper bound on the eigenvalue of merged from the cuts separating the nodes only in a, resp. only in b,
+     *         from the rest of merged; no eigenvalue is computed
+     */
+    public double getMergedEvCutBound() {
+        if (merged == null)
+            createMerged();
+        int[] sortedA = a.getSortedNodes();
+        int[] sortedB = b.getSortedNodes();
+        int[] onlyA = NodeSets.difference(sortedA, sortedB);
+        int[] onlyB = NodeSets.difference(sortedB, sortedA);
+        double bound = Double.MAX_VALUE;
+        if (onlyA.length > 0)
+            bound = merged.getCutBound(onlyA);
+        if (onlyB.length > 0)
+            bound = Math.min(bound, merged.getCutBound(onlyB));
+        return bound;
+    }
+
+    /**
+     * @return upper bound on the eigenvalue of merged from a few lanczos steps
+     */
+    public double getMergedEvLanczosBound(int iterations) {
+        if (merged == null)
+            createMerged();
+        return merged.getEigenvalueUpperBound(iterations);
+    }
+
     public void unlock() {
-        assert a.getLock().isLocked() : "attempt to unlock unlocked lock";
-        a.getLock().unlock();
+        a.unlock();
 
         if (b != null) {
-            assert b.getLock().isLocked() : "attempt to unlock unlocked lock";
-            b.getLock().unlock();
+            b.unlock();
         }
     }
 
@@ -0,0 +1,276 @@
+package index;
+
+import graph.CommunityStore;
+import graph.InducedSubgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * merges communities in rounds, reproducibly for a given seed regardless of the number of threads
+ * each round works through a queue of communities in seeded order, in batches: the communities of a batch are paired
+ * with the communities sharing their nodes in parallel, without locking, then the merges found are committed one
+ * after another in queue order; a community whose partner was merged earlier in the batch is retried next round
+ * merged communities are queued for the next round, the run ends when the queue is empty, that is, when every
+ * community has been examined against all communities it overlaps without finding a mergeable pair
+ * queues hold handles of the index's store, so only the communities being examined exist as subgraphs
+ */
+public class MergeScheduler {
+    /** fixed, so the state a community is evaluated against doesn't depend on the number of threads */
+    private static final int BATCH = 1024;
+
+    /**
+     * decides which pairs are merged, called by several threads at once
+     */
+    public interface Policy {
+        /**
+         * @param candidate a paired with b, neither locked; must not modify the index
+         */
+        boolean mergeable(MergeCandidate candidate);
+
+        /**
+         * @param overlapping number of communities overlapping the examined one
+         * @return how many of them to evaluate before merging with the best mergeable one, at least 1
+         */
+        default int partnersToCheck(int overlapping) {
+            return 1;
+        }
+
+        /** called after candidate has been merged, by the thread calling run */
+        default void merged(MergeCandidate candidate) {
+        }
+
+        /** called when community a is about to be paired with its overlapping communities */
+        default void examined(InducedSubgraph a) {
+        }
+    }
+
+    private final InverseIndex index;
+    private final CommunityStore store;
+    private final Policy policy;
+    private final int numThreads;
+    private final SplittableRandom rnd;
+    // handles of communities created by merges that have not been examined since; only modified between batches
+    private final BitSet fresh = new BitSet();
+    private int rounds;
+
+    public MergeScheduler(InverseIndex index, Policy policy, int numThreads, long seed) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("need at least one thread, got " + numThreads);
+        this.index = index;
+        this.store = index.getStore();
+        this.policy = policy;
+        this.numThreads = numThreads;
+        this.rnd = new SplittableRandom(seed);
+    }
+
+    /**
+     * @param communities all communities of the index, in a fixed order (e.g. as read from file)
+     * @param deadline System.currentTimeMillis() after which to stop between two batches, Long.MAX_VALUE for none
+     * @return true if no mergeable pair is left, false if the deadline was reached first
+     */
+    public boolean run(Collection<InducedSubgraph> communities, long deadline) throws InterruptedException {
+        int[] queue = new int[communities.size()];
+        int size = 0;
+        for (InducedSubgraph c : communities) {
+            if (c.getStore() != store)
+                throw new IllegalArgumentException("community not in the index");
+            queue[size++] = c.getHandle();
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            while (size > 0) {
+                rounds++;
+                SplittableRandom roundRnd = rnd.split();
+                shuffle(queue, size, roundRnd);
+                int[] next = new int[size];
+                int nextSize = 0;
+
+                for (int from = 0; from < size; from += BATCH) {
+                    if (System.currentTimeMillis() > deadline)
+                        return false;
+                    int[] batch = Arrays.copyOfRange(queue, from, Math.min(size, from + BATCH));
+                    // where in a's nodes to start looking for partners, drawn in queue order
+                    int[] start = new int[batch.length];
+                    for (int i = 0; i < start.length; i++)
+                        start[i] = roundRnd.nextInt(Math.max(1, store.getNodeCount(batch[i])));
+
+                    MergeCandidate[] found = evaluate(pool, batch, start);
+                    // every item is queued again at most once, by itself or as its merge
+                    if (next.length - nextSize < batch.length)
+                        next = Arrays.copyOf(next, Math.max(2 * next.length, nextSize + batch.length));
+                    nextSize = commit(found, batch, next, nextSize);
+                }
+                queue = next;
+                size = nextSize;
+            }
+            return true;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return number of rounds started so far
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    private static void shuffle(int[] queue, int size, SplittableRandom rnd) {
+        for (int i = size - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int tmp = queue[i];
+            queue[i] = queue[j];
+            queue[j] = tmp;
+        }
+    }
+
+    private MergeCandidate[] evaluate(ExecutorService pool, int[] batch, int[] start) throws InterruptedException {
+        MergeCandidate[] found = new MergeCandidate[batch.length];
+        AtomicInteger cursor = new AtomicInteger();
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++)
+            workers.add(() -> {
+                int i;
+                while ((i = cursor.getAndIncrement()) < found.length)
+                    found[i] = findPartner(batch[i], start[i]);
+                return null;
+            });
+
+        for (Future<Void> f : pool.invokeAll(workers)) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IllegalStateException("merge evaluation failed", e.getCause());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * pair a with the communities sharing a node with it, visiting a's nodes from start on, in groups of
+     * policy.partnersToCheck until a group contains a mergeable one
+     * the policy need not be symmetric: communities created by a merge are tried as partner of the others too,
+     * which have been examined before the merge
+     * @return best mergeable candidate with merged created, or null if a has been merged before or none is mergeable
+     */
+    private MergeCandidate findPartner(int handle, int start) {
+        if (store.isRetired(handle))
+            return null;
+        InducedSubgraph a = store.view(handle);
+        policy.examined(a);
+
+        int[] nodes = a.getSortedNodes();
+        int[] partners = partners(handle, nodes, start);
+
+        MergeCandidate candidate = new MergeCandidate(a, store, partners);
+        int k = Math.max(1, policy.partnersToCheck(partners.length));
+        // evaluation is parallel over the communities of a batch already
+        while (candidate.hasNext()) {
+            List<MergeCandidate> best = candidate.nextBest(k, policy::mergeable, false);
+            if (!best.isEmpty())
+                return best.get(0);
+        }
+
+        if (fresh.get(handle))
+            for (int partner : partners) {
+                if (store.isRetired(partner))
+                    continue;
+                MergeCandidate reversed = new MergeCandidate(store.view(partner));
+                reversed.pairWith(a);
+                if (policy.mergeable(reversed))
+                    return withMerged(reversed);
+            }
+        return null;
+    }
+
+    /**
+     * @return handles of the communities sharing a node with a other than a, not retired, in order of first
+     *         occurrence when visiting a's nodes from start on
+     */
+    private int[] partners(int a, int[] nodes, int start) {
+        int[][] buckets = new int[nodes.length][];
+        int total = 0;
+        for (int k = 0; k < nodes.length; k++) {
+            buckets[k] = index.getHandles(nodes[(start + k) % nodes.length]);
+            total += buckets[k].length;
+        }
+        // handle in the high half, position of occurrence in the low half: sorting groups the occurrences of a
+        // handle with the first one in front
+        long[] keys = new long[total];
+        int count = 0;
+        for (int[] bucket : buckets)
+            for (int h : bucket)
+                if (h != a && !store.isRetired(h)) {
+                    keys[count] = (long) h << 32 | count;
+                    count++;
+                }
+        Arrays.sort(keys, 0, count);
+        long[] first = new long[count];
+        int distinct = 0;
+        for (int i = 0; i < count; i++)
+            if (i == 0 || keys[i] >>> 32 != keys[i - 1] >>> 32)
+                first[distinct++] = (keys[i] & 0xFFFFFFFFL) << 32 | keys[i] >>> 32;
+        Arrays.sort(first, 0, distinct);
+        int[] partners = new int[distinct];
+        for (int i = 0; i < distinct; i++)
+            partners[i] = (int) first[i];
+        return partners;
+    }
+
+    private static MergeCandidate withMerged(MergeCandidate candidate) {
+        if (candidate.merged == null)
+            candidate.createMerged();
+        return candidate;
+    }
+
+    /**
+     * apply merges in queue order; communities whose merge has become stale are queued for the next round instead
+     * @return size of next after queueing
+     */
+    private int commit(MergeCandidate[] found, int[] batch, int[] next, int nextSize) {
+        for (int i = 0; i < found.length; i++) {
+            int item = batch[i];
+            MergeCandidate candidate = found[i];
+            if (candidate == null) {
+                // examined against everything it overlaps
+                fresh.clear(item);
+                continue;
+            }
+            if (!candidate.a.tryLock()) {
+                // merged into another community of this batch, which is queued already, unless a is the partner
+                if (!store.isRetired(item))
+                    next[nextSize++] = item;
+                continue;
+            }
+            if (!candidate.b.tryLock()) {
+                candidate.a.unlock();
+                if (!store.isRetired(item))
+                    next[nextSize++] = item;
+                continue;
+            }
+            index.update(candidate);
+            candidate.unlock();
+            fresh.clear(candidate.a.getHandle());
+            fresh.clear(candidate.b.getHandle());
+            fresh.set(candidate.merged.getHandle());
+            policy.merged(candidate);
+            next[nextSize++] = candidate.merged.getHandle();
+        }
+        return nextSize;
+    }
+}
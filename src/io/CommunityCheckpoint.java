@@ -0,0 +1,511 @@
+package io;
+
+import graph.CommunityStore;
+import graph.EigenvalueCache;
+import graph.Graph;
+import graph.InducedSubgraph;
+import index.MergeCandidate;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+
+/**
+ * crash consistent checkpoints of the communities of a merge run and their known eigenvalues, in a directory:
+ * a base snapshot and a journal of the merges since, both binary and little endian
+ * merges are queued by the merging threads and written by a background thread; once the journal has outgrown the
+ * base, the base is rewritten. files are replaced by renaming a complete temporary file, a journal only counts for
+ * the base of the same generation, and a torn record at the end of the journal is ignored, so whenever the process
+ * dies, restore finds the communities after some prefix of the merges
+ */
+public class CommunityCheckpoint implements Closeable {
+    static final int BASE_MAGIC = 0x42435047; // "GPCB"
+    static final int JOURNAL_MAGIC = 0x4A435047; // "GPCJ"
+    static final int VERSION = 1;
+    private static final long MIN_JOURNAL = 1 << 20;
+
+    private final File dir;
+    private final File base;
+    private final File journal;
+    private final long intervalMillis;
+    private final ConcurrentLinkedQueue<Merge> pending = new ConcurrentLinkedQueue<>();
+    private CommunityStore store;
+    // handles of the communities as of the last record written; their nodes are read from the store
+    private final BitSet written = new BitSet();
+    private long generation;
+    private long baseBytes;
+    private FileChannel journalChannel;
+    private Output journalOut;
+    // set when an append failed: the journal may end in a torn record, after which restore reads nothing
+    private boolean journalBroken;
+    private Thread writer;
+    private volatile boolean closed;
+    // the writer waits on this between flushes; close wakes it instead of interrupting, which would close channels
+    private final Object wakeUp = new Object();
+
+    /**
+     * a merge as far as the journal needs it, taken when it happens; its communities may be gone from the store
+     * by the time it is written
+     */
+    private static class Merge {
+        final int a, b, merged;
+        final long keyA, keyB;
+        final int[] nodes;
+        final double ev;
+
+        Merge(MergeCandidate pair) {
+            a = pair.a.getHandle();
+            b = pair.b.getHandle();
+            merged = pair.merged.getHandle();
+            keyA = EigenvalueCache.key(pair.a.getSortedNodes());
+            keyB = EigenvalueCache.key(pair.b.getSortedNodes());
+            nodes = pair.merged.getSortedNodes();
+            ev = pair.merged.getKnownEigenvalue();
+        }
+    }
+
+    /**
+     * @param intervalMillis time between two writes of the queued merges
+     */
+    public CommunityCheckpoint(File dir, long intervalMillis) {
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("checkpoint interval must be positive, got " + intervalMillis);
+        this.dir = dir;
+        this.base = new File(dir, "communities.base");
+        this.journal = new File(dir, "communities.journal");
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * write a base snapshot of the live communities of store synchronously, then start writing merges in the
+     * background; restore returns the communities in order of their handles
+     */
+    public synchronized void start(CommunityStore store) throws IOException {
+        if (writer != null)
+            throw new IllegalStateException("checkpoint already started");
+        this.store = store;
+        for (int h = 0; h < store.getHandleCount(); h++)
+            if (!store.isRetired(h))
+                written.set(h);
+        Files.createDirectories(dir.toPath());
+        generation = readGeneration(base);
+        rewriteBase();
+
+        writer = new Thread(() -> {
+            while (true) {
+                try {
+                    synchronized (wakeUp) {
+                        long until = System.currentTimeMillis() + intervalMillis;
+                        long left;
+                        while (!closed && (left = until - System.currentTimeMillis()) > 0)
+                            wakeUp.wait(left);
+                    }
+                    if (closed)
+                        return;
+                    flush();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    // keep merging, the next flush rewrites the base
+                    e.printStackTrace();
+                }
+            }
+        }, "checkpoint");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * queue a merge for the next write, called by InverseIndex.update before merged is visible to other threads
+     */
+    public void merged(MergeCandidate pair) {
+        if (pair.a.getStore() != store || pair.b.getStore() != store || pair.merged.getStore() != store)
+            throw new IllegalArgumentException("merge of communities not in the checkpointed store");
+        pending.add(new Merge(pair));
+    }
+
+    /**
+     * append all queued merges to the journal and sync it, rewrite the base if the journal has outgrown it or
+     * an earlier append failed
+     */
+    public synchronized void flush() throws IOException {
+        if (journalOut == null)
+            return;
+        if (journalBroken) {
+            rewriteBase();
+            return;
+        }
+
+        Merge merge;
+        int count = 0;
+        try {
+            while ((merge = pending.poll()) != null) {
+                // applied first, so a failed append can't lose it
+                apply(merge);
+                append(merge);
+                count++;
+            }
+            if (count == 0)
+                return;
+            journalOut.flush();
+            journalChannel.force(false);
+        } catch (IOException e) {
+            journalBroken = true;
+            throw e;
+        }
+
+        if (journalChannel.size() > Math.max(MIN_JOURNAL, baseBytes))
+            rewriteBase();
+    }
+
+    private void apply(Merge merge) {
+        written.clear(merge.a);
+        written.clear(merge.b);
+        written.set(merge.merged);
+    }
+
+    private void append(Merge merge) throws IOException {
+        Output record = journalOut;
+        record.putInt(8 + 8 + 8 + 4 + 4 * merge.nodes.length);
+        record.resetCrc();
+        record.putLong(merge.keyA);
+        record.putLong(merge.keyB);
+        record.putDouble(merge.ev);
+        record.putInt(merge.nodes.length);
+        for (int node : merge.nodes)
+            record.putInt(node);
+        record.putInt(record.crcValue());
+    }
+
+    /**
+     * write the last queued merges and stop the background thread
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        synchronized (wakeUp) {
+            wakeUp.notifyAll();
+        }
+        if (writer != null)
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        synchronized (this) {
+            flush();
+            if (journalChannel != null)
+                journalChannel.close();
+            journalChannel = null;
+            journalOut = null;
+        }
+    }
+
+    /**
+     * base and empty journal of the next generation, each written to a temporary file and renamed over the old one;
+     * in between, the old journal doesn't match the new base and is ignored by restore
+     * queued merges are applied first. a community merged after that is retired only once its merge is queued,
+     * so holding the store's nodes from before keeps the nodes of every written community readable
+     */
+    private void rewriteBase() throws IOException {
+        store.holdNodes();
+        try {
+            Merge merge;
+            while ((merge = pending.poll()) != null)
+                apply(merge);
+            writeBase();
+        } finally {
+            store.releaseNodes();
+        }
+    }
+
+    private void writeBase() throws IOException {
+        // until it's complete, appending to whatever journal is left would be lost
+        journalBroken = true;
+        generation++;
+        if (journalChannel != null)
+            journalChannel.close();
+
+        File tmp = new File(dir, base.getName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(ch);
+            out.putInt(BASE_MAGIC);
+            out.putInt(VERSION);
+            out.putLong(generation);
+            out.putInt(written.cardinality());
+            for (int h = written.nextSetBit(0); h >= 0; h = written.nextSetBit(h + 1)) {
+                int[] nodes = store.getNodes(h);
+                out.putInt(nodes.length);
+                out.putDouble(store.getEigenvalue(h));
+                for (int node : nodes)
+                    out.putInt(node);
+            }
+            out.putInt(out.crcValue());
+            out.flush();
+            ch.force(true);
+            baseBytes = ch.size();
+        }
+        Files.move(tmp.toPath(), base.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        tmp = new File(dir, journal.getName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(ch);
+            out.putInt(JOURNAL_MAGIC);
+            out.putInt(VERSION);
+            out.putLong(generation);
+            out.flush();
+            ch.force(true);
+        }
+        Files.move(tmp.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        journalChannel = FileChannel.open(journal.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journalOut = new Output(journalChannel);
+        journalBroken = false;
+    }
+
+    /**
+     * @return generation of the base in dir, 0 if there is none or it can't be read
+     */
+    private static long readGeneration(File base) {
+        if (!base.exists())
+            return 0;
+        try (FileChannel ch = FileChannel.open(base.toPath(), StandardOpenOption.READ)) {
+            Input in = new Input(ch);
+            return in.getInt() == BASE_MAGIC && in.getInt() == VERSION ? in.getLong() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * read the base in dir and apply the merges of its journal, up to the first incomplete or damaged record
+     * @param main graph the communities are subgraphs of
+     * @return communities in the order of the base, followed by merged ones in the order of their merges;
+     *         eigenvalues are set where they were known. null if dir holds no checkpoint
+     */
+    public static ArrayList<InducedSubgraph> restore(File dir, Graph main) throws IOException, FileFormatException {
+        File base = new File(dir, "communities.base");
+        if (!base.exists())
+            return null;
+
+        ArrayList<int[]> nodeLists = new ArrayList<>();
+        ArrayList<Double> evs = new ArrayList<>();
+        long generation;
+        try (FileChannel ch = FileChannel.open(base.toPath(), StandardOpenOption.READ)) {
+            Input in = new Input(ch);
+            if (in.getInt() != BASE_MAGIC)
+                throw new FileFormatException("not a checkpoint base: " + base);
+            int version = in.getInt();
+            if (version != VERSION)
+                throw new FileFormatException("unsupported checkpoint version " + version);
+            generation = in.getLong();
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                int[] nodes = new int[in.getInt()];
+                evs.add(in.getDouble());
+                for (int j = 0; j < nodes.length; j++)
+                    nodes[j] = in.getInt();
+                nodeLists.add(nodes);
+            }
+            int crc = in.crcValue();
+            if (in.getInt() != crc || !in.atEnd())
+                throw new FileFormatException("damaged checkpoint base: " + base);
+        } catch (EOFException e) {
+            throw new FileFormatException("truncated checkpoint base: " + base);
+        }
+
+        // identical node sets are interchangeable, any of them can be removed
+        HashMap<Long, ArrayDeque<Integer>> byKey = new HashMap<>();
+        for (int i = 0; i < nodeLists.size(); i++)
+            byKey.computeIfAbsent(EigenvalueCache.key(nodeLists.get(i)), k -> new ArrayDeque<>()).add(i);
+        ArrayList<Integer> removedList = new ArrayList<>();
+
+        File journal = new File(dir, "communities.journal");
+        if (journal.exists())
+            try (FileChannel ch = FileChannel.open(journal.toPath(), StandardOpenOption.READ)) {
+                Input in = new Input(ch);
+                if (in.getInt() == JOURNAL_MAGIC && in.getInt() == VERSION && in.getLong() == generation)
+                    while (!in.atEnd()) {
+                        int length = in.getInt();
+                        if (length < 28 || (length - 28) % 4 != 0)
+                            break;
+                        in.resetCrc();
+                        long keyA = in.getLong();
+                        long keyB = in.getLong();
+                        double ev = in.getDouble();
+                        int[] nodes = new int[in.getInt()];
+                        if (nodes.length != (length - 28) / 4)
+                            break;
+                        for (int j = 0; j < nodes.length; j++)
+                            nodes[j] = in.getInt();
+                        int crc = in.crcValue();
+                        if (in.getInt() != crc)
+                            break;
+
+                        for (long key : new long[]{keyA, keyB}) {
+                            ArrayDeque<Integer> same = byKey.get(key);
+                            if (same == null || same.isEmpty())
+                                throw new FileFormatException("checkpoint journal merges unknown community: " + journal);
+                            removedList.add(same.poll());
+                        }
+                        byKey.computeIfAbsent(EigenvalueCache.key(nodes), k -> new ArrayDeque<>()).add(nodeLists.size());
+                        nodeLists.add(nodes);
+                        evs.add(ev);
+                    }
+            } catch (EOFException e) {
+                // torn last record, the merges before it are complete
+            }
+
+        boolean[] removed = new boolean[nodeLists.size()];
+        for (int i : removedList)
+            removed[i] = true;
+        ArrayList<InducedSubgraph> communities = new ArrayList<>();
+        for (int i = 0; i < nodeLists.size(); i++) {
+            if (removed[i])
+                continue;
+            InducedSubgraph c = new InducedSubgraph(main, nodeLists.get(i));
+            if (evs.get(i) != -1)
+                c.setEigenvalue(evs.get(i));
+            communities.add(c);
+        }
+        return communities;
+    }
+
+    /**
+     * little endian values buffered into a channel, with a crc32 of the bytes put since resetCrc
+     */
+    private static class Output {
+        final FileChannel ch;
+        final ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        final CRC32 crc = new CRC32();
+        // bytes of buf before this position are in crc already
+        int crcFrom;
+
+        Output(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buf.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buf.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buf.putDouble(value);
+        }
+
+        void resetCrc() {
+            crc.reset();
+            crcFrom = buf.position();
+        }
+
+        int crcValue() {
+            fold();
+            return (int) crc.getValue();
+        }
+
+        private void fold() {
+            crc.update(buf.array(), crcFrom, buf.position() - crcFrom);
+            crcFrom = buf.position();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes)
+                flush();
+        }
+
+        void flush() throws IOException {
+            fold();
+            buf.flip();
+            while (buf.hasRemaining())
+                ch.write(buf);
+            buf.clear();
+            crcFrom = 0;
+        }
+    }
+
+    /**
+     * little endian values read from a channel, with a crc32 of the bytes read since resetCrc
+     */
+    private static class Input {
+        final FileChannel ch;
+        final ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        final CRC32 crc = new CRC32();
+        // bytes of buf before this position are in crc already
+        int crcFrom;
+
+        Input(FileChannel ch) {
+            this.ch = ch;
+            buf.flip();
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return buf.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(8);
+            return buf.getLong();
+        }
+
+        double getDouble() throws IOException {
+            ensure(8);
+            return buf.getDouble();
+        }
+
+        void resetCrc() {
+            crc.reset();
+            crcFrom = buf.position();
+        }
+
+        int crcValue() {
+            fold();
+            return (int) crc.getValue();
+        }
+
+        private void fold() {
+            crc.update(buf.array(), crcFrom, buf.position() - crcFrom);
+            crcFrom = buf.position();
+        }
+
+        boolean atEnd() throws IOException {
+            return !buf.hasRemaining() && !fill();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            while (buf.remaining() < bytes)
+                if (!fill())
+                    throw new EOFException();
+        }
+
+        /** @return false if nothing could be read */
+        private boolean fill() throws IOException {
+            fold();
+            buf.compact();
+            int read = ch.read(buf);
+            buf.flip();
+            crcFrom = 0;
+            return read > 0;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package io;
+
+import graph.CommunityStore;
+import graph.Graph;
+import graph.InducedSubgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * all communities of a node list file (one community per line, see GraphReader.NodeList and NodeListWithEvs),
+ * read at once into a single pool of node ids: community i is pool[offsets[i]] to pool[offsets[i + 1] - 1]
+ * the file is memory mapped and parsed in newline aligned chunks in parallel, without objects per line or node;
+ * blank lines and lines holding only a comment are not communities
+ */
+public class CommunityList {
+    // same trade off as in ParallelMetisParser
+    private static final long MIN_CHUNK = 1 << 22;
+    private static final long MAX_CHUNK = 1 << 30;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final int[] pool;
+    private final int[] offsets;
+    private final double[] evs;
+
+    private CommunityList(int[] pool, int[] offsets, double[] evs) {
+        this.pool = pool;
+        this.offsets = offsets;
+        this.evs = evs;
+    }
+
+    /**
+     * @param withEvs lines start with the community's eigenvalue (NodeListWithEvs)
+     * @param threads number of chunks parsed at the same time
+     */
+    public static CommunityList read(File f, boolean withEvs, int threads) throws IOException {
+        ForkJoinPool forkJoinPool = new ForkJoinPool(threads);
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            return new Parser(ch, forkJoinPool, withEvs).parse();
+        } catch (FileFormatException e) {
+            throw new FileFormatException(e.getMessage() + " in file " + f.getName());
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    /**
+     * @return number of communities
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return number of nodes of community i
+     */
+    public int getNodeCount(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * @return copy of the nodes of community i, in the order of the file
+     */
+    public int[] getNodes(int i) {
+        return Arrays.copyOfRange(pool, offsets[i], offsets[i + 1]);
+    }
+
+    public boolean hasEigenvalues() {
+        return evs != null;
+    }
+
+    /**
+     * @return eigenvalue of community i as given in the file
+     * @throws UnsupportedOperationException if the file had no eigenvalues
+     */
+    public double getEigenvalue(int i) {
+        if (evs == null)
+            throw new UnsupportedOperationException("community list was read without eigenvalues");
+        return evs[i];
+    }
+
+    /**
+     * create the subgraphs of main for every step-th community, starting with the first, in parallel;
+     * eigenvalues are set if the file had them
+     */
+    public ArrayList<InducedSubgraph> toSubgraphs(Graph main, int step) {
+        if (step < 1)
+            throw new IllegalArgumentException("step must be positive, got " + step);
+        InducedSubgraph[] subgraphs = new InducedSubgraph[(size() + step - 1) / step];
+        Arrays.parallelSetAll(subgraphs, k -> {
+            int i = k * step;
+            InducedSubgraph s = new InducedSubgraph(main, getNodes(i));
+            if (evs != null)
+                s.setEigenvalue(evs[i]);
+            return s;
+        });
+        return new ArrayList<>(Arrays.asList(subgraphs));
+    }
+
+    /**
+     * add every step-th community, starting with the first, to a new store; eigenvalues are added if the file had them
+     */
+    public CommunityStore toStore(Graph main, int step) {
+        if (step < 1)
+            throw new IllegalArgumentException("step must be positive, got " + step);
+        CommunityStore store = new CommunityStore(main);
+        for (int i = 0; i < size(); i += step)
+            store.add(getNodes(i), evs != null ? evs[i] : -1);
+        return store;
+    }
+
+    /**
+     * cuts the file into chunks, parses each chunk into its own arrays and then concatenates them
+     * errors are reported at their byte position; the one earliest in the file wins
+     */
+    private static class Parser {
+        private final FileChannel ch;
+        private final ForkJoinPool forkJoinPool;
+        private final boolean withEvs;
+        private Chunk[] chunks;
+
+        /** communities of one newline aligned part of the file */
+        private static class Chunk {
+            final long start, end;
+            int[] nodes = new int[1024];
+            int size;
+            int[] ends = new int[64];   // end of each community in nodes
+            double[] evs;
+            int lines;
+            int firstLine, firstNode;   // global positions, set after parsing
+            RuntimeException error;
+
+            Chunk(long start, long end, boolean withEvs) {
+                this.start = start;
+                this.end = end;
+                if (withEvs)
+                    evs = new double[ends.length];
+            }
+
+            void add(int node) {
+                if (size == nodes.length)
+                    nodes = Arrays.copyOf(nodes, 2 * size);
+                nodes[size++] = node;
+            }
+
+            void endLine(double ev) {
+                if (lines == ends.length) {
+                    ends = Arrays.copyOf(ends, 2 * lines);
+                    if (evs != null)
+                        evs = Arrays.copyOf(evs, 2 * lines);
+                }
+                if (evs != null)
+                    evs[lines] = ev;
+                ends[lines++] = size;
+            }
+        }
+
+        Parser(FileChannel ch, ForkJoinPool forkJoinPool, boolean withEvs) {
+            this.ch = ch;
+            this.forkJoinPool = forkJoinPool;
+            this.withEvs = withEvs;
+        }
+
+        CommunityList parse() throws IOException {
+            split();
+            invokeAll(this::parse);
+
+            int lines = 0;
+            long nodes = 0;
+            for (Chunk c : chunks) {
+                if (c.error != null)
+                    throw c.error;
+                c.firstLine = lines;
+                c.firstNode = (int) nodes;
+                lines += c.lines;
+                nodes += c.size;
+                if (nodes > Integer.MAX_VALUE - 8)
+                    throw new FileFormatException(String.format("more than %d nodes in communities, too many to be read into memory", nodes));
+            }
+
+            int[] pool = new int[(int) nodes];
+            int[] offsets = new int[lines + 1];
+            double[] evs = withEvs ? new double[lines] : null;
+            invokeAll(c -> {
+                System.arraycopy(c.nodes, 0, pool, c.firstNode, c.size);
+                for (int i = 0; i < c.lines; i++)
+                    offsets[c.firstLine + i + 1] = c.firstNode + c.ends[i];
+                if (evs != null)
+                    System.arraycopy(c.evs, 0, evs, c.firstLine, c.lines);
+                c.nodes = null;
+            });
+            chunks = null;
+            return new CommunityList(pool, offsets, evs);
+        }
+
+        /**
+         * cut the file into chunks ending right after a '\n'
+         */
+        private void split() throws IOException {
+            long size = ch.size();
+            long chunkSize = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, size / ((long) forkJoinPool.getParallelism() * CHUNKS_PER_THREAD) + 1));
+            List<Chunk> list = new ArrayList<>();
+            long start = 0;
+            while (start < size) {
+                long end = start + chunkSize >= size ? size : nextLine(start + chunkSize, Math.min(size, start + MAX_CHUNK));
+                list.add(new Chunk(start, end, withEvs));
+                start = end;
+            }
+            chunks = list.toArray(new Chunk[0]);
+        }
+
+        /**
+         * @return position after first '\n' at or after pos, limit if that is the end of the file
+         */
+        private long nextLine(long pos, long limit) throws IOException {
+            long size = ch.size();
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            while (pos < limit) {
+                buf.clear();
+                int read = ch.read(buf, pos);
+                if (read <= 0)
+                    break;
+                for (int i = 0; i < read && pos + i < limit; i++)
+                    if (buf.get(i) == '\n')
+                        return pos + i + 1;
+                pos += read;
+            }
+            if (limit == size)
+                return limit;
+            throw new FileFormatException(String.format("no line break within %d bytes after byte %d, cannot split file", MAX_CHUNK, pos));
+        }
+
+        /**
+         * parse the lines of c, stop at the first error
+         */
+        private void parse(Chunk c) throws IOException {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, c.start, c.end - c.start);
+            int limit = buf.limit();
+            byte[] token = new byte[64];
+            int pos = 0;
+            try {
+                while (pos < limit) {
+                    pos = skipBlanks(buf, pos, limit);
+                    if (pos == limit)
+                        break;
+                    if (isEndOfLine(buf.get(pos))) {
+                        pos = skipLine(buf, pos, limit);
+                        continue;
+                    }
+
+                    double ev = 0;
+                    if (withEvs) {
+                        int end = pos;
+                        while (end < limit && !isSeparator(buf.get(end)))
+                            end++;
+                        if (end - pos > token.length)
+                            throw new FileFormatException(String.format("eigenvalue too long at byte %d", c.start + pos));
+                        buf.get(pos, token, 0, end - pos);
+                        try {
+                            ev = Double.parseDouble(new String(token, 0, end - pos, StandardCharsets.US_ASCII));
+                        } catch (NumberFormatException e) {
+                            throw new FileFormatException(String.format("eigenvalue expected at byte %d", c.start + pos));
+                        }
+                        pos = end;
+                    }
+
+                    while (true) {
+                        pos = skipBlanks(buf, pos, limit);
+                        if (pos == limit || isEndOfLine(buf.get(pos)))
+                            break;
+                        long v = 0;
+                        int begin = pos;
+                        byte b;
+                        while (pos < limit && (b = buf.get(pos)) >= '0' && b <= '9') {
+                            v = v * 10 + (b - '0');
+                            if (v > Integer.MAX_VALUE)
+                                throw new FileFormatException(String.format("number too large at byte %d", c.start + begin));
+                            pos++;
+                        }
+                        if (pos == begin || pos < limit && !isSeparator(buf.get(pos)))
+                            throw new FileFormatException(String.format("unknown token starting with '%c' at byte %d", (char) buf.get(pos), c.start + pos));
+                        c.add((int) v);
+                    }
+                    c.endLine(ev);
+                    pos = skipLine(buf, pos, limit);
+                }
+            } catch (RuntimeException e) {
+                c.error = e;
+            }
+        }
+
+        private static boolean isSeparator(byte b) {
+            return b == ' ' || b == '\t' || isEndOfLine(b);
+        }
+
+        /** a comment runs to the end of the line, so it ends the line's content */
+        private static boolean isEndOfLine(byte b) {
+            return b == '\n' || b == '\r' || b == '%';
+        }
+
+        private static int skipBlanks(ByteBuffer buf, int pos, int limit) {
+            byte b;
+            while (pos < limit && ((b = buf.get(pos)) == ' ' || b == '\t'))
+                pos++;
+            return pos;
+        }
+
+        /** @return position after the next line break, '\r' on its own included */
+        private static int skipLine(ByteBuffer buf, int pos, int limit) {
+            while (pos < limit) {
+                byte b = buf.get(pos++);
+                if (b == '\n')
+                    break;
+                if (b == '\r') {
+                    if (pos < limit && buf.get(pos) == '\n')
+                        pos++;
+                    break;
+                }
+            }
+            return pos;
+        }
+
+        private interface ChunkTask {
+            void run(Chunk c) throws IOException;
+        }
+
+        private void invokeAll(ChunkTask task) throws IOException {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (Chunk c : chunks)
+                tasks.add(() -> {
+                    task.run(c);
+                    return null;
+                });
+            try {
+                for (Future<Void> f : forkJoinPool.invokeAll(tasks))
+                    f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while reading communities", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new IOException(cause);
+            }
+        }
+    }
+}
@@ -2,12 +2,21 @@ package io;
 
 import graph.AdjacencyList;
 import graph.AdjacencyMatrix;
+import graph.CompressedSparseRow;
 import graph.Graph;
 import graph.InducedSubgraph;
+import graph.MappedGraph;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 public class GraphReader {
     private inputFormat inputFormat;
@@ -56,8 +65,8 @@ public class GraphReader {
      */
     public Graph fromFile(File f) throws IOException {
         checkFormatSet();
-        try (BufferedReader br = new BufferedReader(new FileReader(f))){
-            Graph g = inputFormat.read(new StreamTokenizer(br), returnFormat);
+        try {
+            Graph g = inputFormat.read(f, returnFormat);
             g.setName(f.getName().split("\\.")[0]);
             return g;
         } catch (FileFormatException e) {
@@ -68,7 +77,7 @@ public class GraphReader {
     public Graph fromString(String s) throws IOException {
         checkFormatSet();
         try {
-            return inputFormat.read(new StreamTokenizer(new StringReader(s)), returnFormat);
+            return inputFormat.read(s, returnFormat);
         } catch (FileFormatException e) {
             throw new FileFormatException(e.getMessage() + " in string " + s);
         }
@@ -89,15 +98,42 @@ public class GraphReader {
 
     private interface inputFormat {
         /**
-         * @param in input stream tokenizer
+         * @param f file to read
          * @param format format in which to return
          */
-        Graph read(StreamTokenizer in, returnFormat format) throws IOException, FileFormatException;
+        Graph read(File f, returnFormat format) throws IOException, FileFormatException;
+
+        /**
+         * @param s string to read
+         * @param format format in which to return
+         */
+        Graph read(String s, returnFormat format) throws IOException, FileFormatException;
 
         /**
          * @return EBNF string specifying input format exactly
          */
         String getEBNF();
+    }
+
+    /** text formats read through a StreamTokenizer */
+    private interface tokenizedFormat extends inputFormat {
+        /**
+         * @param in input stream tokenizer
+         * @param format format in which to return
+         */
+        Graph read(StreamTokenizer in, returnFormat format) throws IOException, FileFormatException;
+
+        @Override
+        default Graph read(File f, returnFormat format) throws IOException, FileFormatException {
+            try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+                return read(new StreamTokenizer(br), format);
+            }
+        }
+
+        @Override
+        default Graph read(String s, returnFormat format) throws IOException, FileFormatException {
+            return read(new StreamTokenizer(new StringReader(s)), format);
+        }
 
         /** convenience method for reading next number and rounding to int */
         default int readInt(StreamTokenizer in) throws IOException {
@@ -108,35 +144,86 @@ public class GraphReader {
         }
     }
 
+    /**
+     * parsed byte by byte by IntTokenizer, file is streamed through a large buffer
+     * adjacency goes straight into the return format, which is pre-sized from the header if it supports that
+     * with more than one thread, files are parsed in chunks by a ParallelMetisParser into a csr graph instead,
+     * which is then copied into the return format unless that is Csr
+     */
     public static class Metis implements inputFormat {
+        private final int threads;
+
+        public Metis() {
+            this(1);
+        }
+
+        /**
+         * @param threads number of threads parsing files; strings are always parsed sequentially
+         */
+        public Metis(int threads) {
+            if (threads < 1)
+                throw new IllegalArgumentException("cannot parse metis with " + threads + " threads");
+            this.threads = threads;
+        }
+
         @Override
-        public Graph read(StreamTokenizer in, GraphReader.returnFormat format) throws IOException {
-            in.commentChar('%');
-            in.parseNumbers();
-            in.nextToken();
-            int n = readInt(in);
-            in.nextToken();
-            int e = readInt(in);
-            in.eolIsSignificant(true);
-            int eVerify = 0;
+        public Graph read(File f, returnFormat format) throws IOException, FileFormatException {
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                if (threads > 1)
+                    return readParallel(ch, format);
+                return read(new IntTokenizer(ch), format);
+            }
+        }
+
+        private Graph readParallel(FileChannel ch, returnFormat format) throws IOException {
+            IntTokenizer in = new IntTokenizer(ch);
+            int n = readHeaderInt(in);
+            int e = readHeaderInt(in);
+            int token = skipHeaderFields(in);
+            // position is right after the header's line break, or the end of the file
+            long dataStart = token == IntTokenizer.TT_EOL ? in.position() : ch.size();
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            CompressedSparseRow csr;
+            try {
+                csr = new ParallelMetisParser(ch, pool, n).parse(dataStart, e);
+            } finally {
+                pool.shutdown();
+            }
+            if (format instanceof Csr)
+                return csr;
 
-            while (in.nextToken() != StreamTokenizer.TT_EOL)
-                if(in.ttype == StreamTokenizer.TT_NUMBER)
-                    System.err.println("skipping metis header info: " + in.nval);
-                else
-                    System.err.println("skipping metis header info: " + in.sval);
+            Graph g = format.get(n, csr.getEdgeCount());
+            for (int i = 0; i < n; i++) {
+                final int from = i;
+                csr.forEachNeighbor(i, to -> g.addEdge(from, to));
+            }
+            return g;
+        }
+
+        @Override
+        public Graph read(String s, returnFormat format) throws IOException, FileFormatException {
+            return read(new IntTokenizer(ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII))), format);
+        }
 
-            Graph g = format.get(n);
+        private Graph read(IntTokenizer in, returnFormat format) throws IOException {
+            int n = readHeaderInt(in);
+            int e = readHeaderInt(in);
+
+            int token = skipHeaderFields(in);
+
+            // every undirected edge is listed twice
+            Graph g = format.get(n, 2L * e);
 
             int i = 0;
-            while (in.nextToken() != StreamTokenizer.TT_EOF)
-                if (in.ttype == StreamTokenizer.TT_NUMBER) {
-                    eVerify++;
-                    g.addEdge(i, (int) Math.round(in.nval));
-                } else if(in.ttype == StreamTokenizer.TT_EOL)
-                    i++;
-                else
-                    throw new FileFormatException("unknown token " + in.sval);
+            long eVerify = 0;
+            if (token == IntTokenizer.TT_EOL)
+                while ((token = in.nextToken()) != IntTokenizer.TT_EOF)
+                    if (token == IntTokenizer.TT_NUMBER) {
+                        eVerify++;
+                        g.addEdge(i, in.intValue());
+                    } else
+                        i++;
 
             if(eVerify % 2 != 0)
                 throw new FileFormatException("uneven edge count");
@@ -148,6 +235,29 @@ public class GraphReader {
             return g;
         }
 
+        /**
+         * skip optional fields after n and e
+         * @return token ending the header, TT_EOL or TT_EOF
+         */
+        private static int skipHeaderFields(IntTokenizer in) throws IOException {
+            int skipped = 0;
+            int token;
+            while ((token = in.nextToken()) == IntTokenizer.TT_NUMBER)
+                skipped++;
+            if (skipped > 0)
+                System.err.println("skipping " + skipped + " metis header fields");
+            return token;
+        }
+
+        /** header values may be preceded by comments and empty lines */
+        private static int readHeaderInt(IntTokenizer in) throws IOException {
+            int token;
+            while ((token = in.nextToken()) == IntTokenizer.TT_EOL);
+            if (token == IntTokenizer.TT_EOF)
+                throw new FileFormatException("missing metis header");
+            return in.intValue();
+        }
+
         @Override
         public String getEBNF() {
             return  "comment = '%' string '\\n' .\n" +
@@ -157,7 +267,7 @@ public class GraphReader {
         }
     }
 
-    public static class NodeList implements inputFormat {
+    public static class NodeList implements tokenizedFormat {
         private Graph main;
 
         public NodeList(Graph main) {
@@ -202,7 +312,7 @@ public class GraphReader {
         }
     }
 
-    public static class NodeListWithEvs implements inputFormat {
+    public static class NodeListWithEvs implements tokenizedFormat {
         NodeList nl;
 
         public NodeListWithEvs(Graph main) {
@@ -229,12 +339,83 @@ public class GraphReader {
 
 
 
+    /**
+     * compressed sparse row graph as written by GraphWriter.Binary, memory mapped instead of parsed
+     * with return format Mapped the graph stays in the mapped file, otherwise it is copied into the return format
+     */
+    public static class Binary implements inputFormat {
+        @Override
+        public Graph read(File f, returnFormat format) throws IOException, FileFormatException {
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                long size = ch.size();
+                if (size < GraphWriter.Binary.HEADER)
+                    throw new FileFormatException("file too short for binary graph header");
+
+                ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, GraphWriter.Binary.HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getInt(0) != GraphWriter.Binary.MAGIC)
+                    throw new FileFormatException("not a binary graph");
+                // version 1 files are read as well, their rows may be unsorted
+                int version = header.getInt(4);
+                if (version != GraphWriter.Binary.VERSION && version != 1)
+                    throw new FileFormatException("unsupported binary graph version " + version);
+                int n = header.getInt(8);
+                int e = header.getInt(12);
+                long offsetsBytes = 4L * (n + 1);
+                long targetsBytes = 4L * e;
+                if (n < 0 || e < 0 || size != GraphWriter.Binary.HEADER + offsetsBytes + targetsBytes)
+                    throw new FileFormatException("file size does not match header");
+                if (targetsBytes > Integer.MAX_VALUE)
+                    throw new FileFormatException("graph with " + e + " edges is too large to be memory mapped");
+
+                // mappings stay valid after the channel is closed
+                IntBuffer offsets = ch.map(FileChannel.MapMode.READ_ONLY, GraphWriter.Binary.HEADER, offsetsBytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                IntBuffer targets = ch.map(FileChannel.MapMode.READ_ONLY, GraphWriter.Binary.HEADER + offsetsBytes, targetsBytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                if (offsets.get(0) != 0 || offsets.get(n) != e)
+                    throw new FileFormatException("offsets do not match edge count in header");
+
+                MappedGraph mapped = new MappedGraph(offsets, targets, version >= 2);
+                if (format instanceof Mapped)
+                    return mapped;
+
+                Graph g = format.get(n);
+                for (int i = 0; i < n; i++) {
+                    final int from = i;
+                    mapped.forEachNeighbor(i, to -> g.addEdge(from, to));
+                }
+                return g;
+            }
+        }
+
+        @Override
+        public Graph read(String s, returnFormat format) {
+            throw new UnsupportedOperationException("cannot read binary graph from string");
+        }
+
+        @Override
+        public String getEBNF() {
+            return  "int = 4 byte little endian integer .\n" +
+                    "header = magic version n e .\n" +
+                    "offsets = int { int } .  (* n + 1 times, offsets[0] = 0, offsets[n] = e *)\n" +
+                    "targets = { int } .  (* e times *)\n" +
+                    "binary = header offsets targets .";
+        }
+    }
+
+
+
     /******************
      * OUTPUT FORMATS *
      ******************/
 
     private interface returnFormat {
         Graph get(int n);
+
+        /**
+         * @param edgeCapacity expected number of (directed) edges, formats that can preallocate use it
+         */
+        default Graph get(int n, long edgeCapacity) {
+            return get(n);
+        }
     }
 
     public static class List implements returnFormat {
@@ -251,6 +432,27 @@ public class GraphReader {
         }
     }
 
+    /** edges need to be added in order of source node, which all input formats do */
+    public static class Csr implements returnFormat {
+        @Override
+        public Graph get(int n) {
+            return new CompressedSparseRow(n);
+        }
+
+        @Override
+        public Graph get(int n, long edgeCapacity) {
+            return new CompressedSparseRow(n, (int) Math.min(edgeCapacity, Integer.MAX_VALUE - 8));
+        }
+    }
+
+    /** special case: can only be read from Binary, graph stays in memory mapped file */
+    public static class Mapped implements returnFormat {
+        @Override
+        public Graph get(int n) {
+            throw new UnsupportedOperationException("attempt to read data into memory mapped graph");
+        }
+    }
+
     /** special case: can only be read from NodeList currently */
     public static class Subgraph implements returnFormat {
         @Override
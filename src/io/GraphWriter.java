@@ -4,8 +4,13 @@ import graph.Graph;
 import index.MergeCandidate;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 
@@ -28,8 +33,8 @@ public class GraphWriter {
             destination = new File(path + "-" + df.format(new Date()) + format.getExtension());
         }
 
-        try(BufferedWriter bw = new BufferedWriter(new FileWriter(destination))) {
-            format.write(g, bw);
+        try(OutputStream os = new BufferedOutputStream(new FileOutputStream(destination))) {
+            format.write(g, os);
         }
     }
 
@@ -50,6 +55,18 @@ public class GraphWriter {
             throw new IllegalStateException("cannot read graph: input format is unset");
     }
 
+    /**
+     * write nodes as one line of a community file, each node followed by a space; sb is reused between calls
+     * so that no string is built per node
+     */
+    public static void writeNodeList(int[] nodes, StringBuilder sb, Writer w) throws IOException {
+        sb.setLength(0);
+        for (int node : nodes)
+            sb.append(node).append(' ');
+        sb.append('\n');
+        w.append(sb);
+    }
+
     // this method is an abomination
     public String toGraphViz(MergeCandidate candidate) {
         final String colorA = "cyan3";
@@ -117,6 +134,15 @@ public class GraphWriter {
          */
         void write(Graph g, Writer w) throws IOException;
 
+        /**
+         * write graph g with specific output format to os, text formats go through a writer
+         */
+        default void write(Graph g, OutputStream os) throws IOException {
+            Writer w = new BufferedWriter(new OutputStreamWriter(os));
+            write(g, w);
+            w.flush();
+        }
+
         /** name of format (for filename extension) */
         String getExtension();
     }
@@ -131,15 +157,15 @@ public class GraphWriter {
             w.write(line.toString());
             w.write("\n");
 
-            // write adjacency lists linewise
+            // write adjacency lists linewise, reusing one buffer for all lines
+            StringBuilder sb = new StringBuilder();
             for (int i = 0; i < g.getNodeCount(); i++) {
-                line = new StringBuilder();
-                for(int neighbor : g.getNeighbors(i))
-                    line.append(neighbor).append(" ");
-                if(line.length() > 0)
-                    line.deleteCharAt(line.length() - 1);
-                w.write(line.toString());
-                w.write("\n");
+                sb.setLength(0);
+                g.forEachNeighbor(i, neighbor -> sb.append(neighbor).append(' '));
+                if(sb.length() > 0)
+                    sb.setLength(sb.length() - 1);
+                sb.append('\n');
+                w.append(sb);
             }
         }
 
@@ -148,4 +174,77 @@ public class GraphWriter {
             return ".metis";
         }
     }
+
+    /**
+     * compressed sparse row layout, little endian ints: magic, version, n, e, n + 1 offsets, e targets
+     * can be memory mapped by GraphReader.Binary without parsing
+     * version 2: targets of each row are in ascending order
+     */
+    public static class Binary implements OutputFormat {
+        static final int MAGIC = 0x42545047; // "GPTB"
+        static final int VERSION = 2;
+        static final int HEADER = 16;
+
+        @Override
+        public void write(Graph g, Writer w) {
+            throw new UnsupportedOperationException("cannot write binary graph to character stream");
+        }
+
+        @Override
+        public void write(Graph g, OutputStream os) throws IOException {
+            int n = g.getNodeCount();
+            long e = 0;
+            for (int i = 0; i < n; i++)
+                e += g.getDegree(i);
+            if (e > Integer.MAX_VALUE)
+                throw new IllegalArgumentException(String.format("cannot write binary graph: %d edges do not fit into int offsets", e));
+
+            WritableByteChannel ch = Channels.newChannel(os);
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(n).putInt((int) e);
+
+            int offset = 0;
+            putInt(buf, ch, offset);
+            for (int i = 0; i < n; i++) {
+                offset += g.getDegree(i);
+                putInt(buf, ch, offset);
+            }
+
+            // rows are written sorted, readers of version 2 rely on that for binary search
+            int[][] row = {new int[16]};
+            int[] size = {0};
+            for (int i = 0; i < n; i++) {
+                size[0] = 0;
+                g.forEachNeighbor(i, neighbor -> {
+                    if (size[0] == row[0].length)
+                        row[0] = Arrays.copyOf(row[0], 2 * size[0]);
+                    row[0][size[0]++] = neighbor;
+                });
+                Arrays.sort(row[0], 0, size[0]);
+                for (int j = 0; j < size[0]; j++)
+                    putInt(buf, ch, row[0][j]);
+            }
+
+            buf.flip();
+            while (buf.hasRemaining())
+                ch.write(buf);
+            os.flush();
+        }
+
+        /** put value into buf, flushing buf to ch first if it is full */
+        private static void putInt(ByteBuffer buf, WritableByteChannel ch, int value) throws IOException {
+            if (buf.remaining() < 4) {
+                buf.flip();
+                while (buf.hasRemaining())
+                    ch.write(buf);
+                buf.clear();
+            }
+            buf.putInt(value);
+        }
+
+        @Override
+        public String getExtension() {
+            return ".csr";
+        }
+    }
 }
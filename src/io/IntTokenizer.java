@@ -0,0 +1,151 @@
+package io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * byte level tokenizer for whitespace separated non-negative integers, replaces StreamTokenizer for large inputs
+ * parses ints directly from bytes without going through double, creates no objects per token
+ * '%' starts a comment that runs until the end of the line; '\n', '\r' and "\r\n" end a line
+ */
+class IntTokenizer {
+    static final int TT_NUMBER = 0;
+    static final int TT_EOL = 1;
+    static final int TT_EOF = 2;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final ReadableByteChannel in;
+    private final ByteBuffer buf;
+    private int pos;
+    private int limit;
+    private long consumed;
+    private int value;
+
+    /**
+     * tokenize everything readable from channel, streamed through a buffer
+     */
+    IntTokenizer(ReadableByteChannel in) {
+        this.in = in;
+        this.buf = ByteBuffer.allocate(BUFFER_SIZE);
+        this.pos = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * tokenize bytes of buf between its position and limit
+     */
+    IntTokenizer(ByteBuffer buf) {
+        this(buf, 0);
+    }
+
+    /**
+     * tokenize bytes of buf between its position and limit
+     * @param offset position of buf's first byte in the input, for positions in error messages
+     */
+    IntTokenizer(ByteBuffer buf, long offset) {
+        this.in = null;
+        this.buf = buf;
+        this.pos = buf.position();
+        this.limit = buf.limit();
+        this.consumed = offset;
+    }
+
+    /**
+     * @return TT_NUMBER (value available through intValue), TT_EOL or TT_EOF
+     */
+    int nextToken() throws IOException {
+        while (true) {
+            if (pos == limit && !fill())
+                return TT_EOF;
+            byte c = buf.get(pos);
+
+            if (c >= '0' && c <= '9') {
+                readNumber();
+                return TT_NUMBER;
+            }
+
+            pos++;
+            switch (c) {
+                case ' ':
+                case '\t':
+                    break;
+                case '\n':
+                    return TT_EOL;
+                case '\r':
+                    if ((pos < limit || fill()) && buf.get(pos) == '\n')
+                        pos++;
+                    return TT_EOL;
+                case '%':
+                    skipComment();
+                    break;
+                default:
+                    throw new FileFormatException(String.format("unknown token starting with '%c' at byte %d", (char) c, position() - 1));
+            }
+        }
+    }
+
+    /**
+     * @return value of last TT_NUMBER token
+     */
+    int intValue() {
+        return value;
+    }
+
+    /**
+     * @return number of bytes consumed so far
+     */
+    long position() {
+        return consumed + pos;
+    }
+
+    private void readNumber() throws IOException {
+        long v = 0;
+        while (pos < limit || fill()) {
+            byte c = buf.get(pos);
+            if (c < '0' || c > '9')
+                break;
+            v = v * 10 + (c - '0');
+            if (v > Integer.MAX_VALUE)
+                throw new FileFormatException(String.format("number too large at byte %d", position()));
+            pos++;
+        }
+        // a number directly followed by something other than a separator is a word like "1.5" or "3a"
+        if ((pos < limit || fill()) && !isSeparator(buf.get(pos)))
+            throw new FileFormatException(String.format("unknown token starting with '%c' at byte %d", (char) buf.get(pos), position()));
+        value = (int) v;
+    }
+
+    private static boolean isSeparator(byte c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '%';
+    }
+
+    /** skips to the end of the line, leaving the line break to be returned as TT_EOL */
+    private void skipComment() throws IOException {
+        while (pos < limit || fill()) {
+            byte c = buf.get(pos);
+            if (c == '\n' || c == '\r')
+                return;
+            pos++;
+        }
+    }
+
+    /**
+     * read next block from channel into buffer
+     * @return false if there is no more input
+     */
+    private boolean fill() throws IOException {
+        if (in == null)
+            return false;
+        consumed += limit;
+        buf.clear();
+        int read;
+        do {
+            read = in.read(buf);
+        } while (read == 0);
+        pos = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+}
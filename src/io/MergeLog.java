@@ -0,0 +1,227 @@
+package io;
+
+import graph.InducedSubgraph;
+import index.MergeCandidate;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * append only log of the merges of a run, written in batches by a dedicated thread
+ * communities are numbered: the initial ones in the order given, merged ones from there on in the order of their
+ * merges; a merge event names a, b and merged by number, so with the initial communities any intermediate state
+ * can be replayed (see tasks.ReplayMergeLog). little endian:
+ * header = magic version initialCount ; event = nanos(long) a b merged (ints) delta ev (doubles)
+ */
+public class MergeLog implements Closeable {
+    static final int MAGIC = 0x4C4D5047; // "GPML"
+    static final int VERSION = 1;
+    static final int EVENT = 8 + 4 * 3 + 8 * 2;
+
+    /**
+     * one merge; time in nanoseconds since the log was opened
+     */
+    public static class Event {
+        public final long nanos;
+        public final int a, b, merged;
+        public final double delta, ev;
+
+        Event(long nanos, int a, int b, int merged, double delta, double ev) {
+            this.nanos = nanos;
+            this.a = a;
+            this.b = b;
+            this.merged = merged;
+            this.delta = delta;
+            this.ev = ev;
+        }
+    }
+
+    private static final Event END = new Event(0, 0, 0, 0, 0, 0);
+
+    private final FileChannel ch;
+    private final long start = System.nanoTime();
+    // number of the community by its handle in the store, -1 if it has none; guarded by queue
+    private int[] ids;
+    private int nextId;
+    private final LinkedBlockingQueue<Event> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile IOException failure;
+
+    /**
+     * create (or overwrite) log file f and start the writer thread
+     * @param initial communities the run starts with, numbered in this order; all in the store of the index. to be
+     *                replayed, they have to be those of a communities file, so not restored from a checkpoint
+     */
+    public MergeLog(File f, Collection<InducedSubgraph> initial) throws IOException {
+        ids = new int[0];
+        for (InducedSubgraph c : initial) {
+            if (c.getHandle() == -1)
+                throw new IllegalArgumentException("merge log of communities that are not in a community store");
+            put(c.getHandle(), nextId++);
+        }
+
+        ch = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(initial.size()).flip();
+        while (header.hasRemaining())
+            ch.write(header);
+
+        writer = new Thread(this::write, "merge log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * queue the merge of pair; called by InverseIndex.update before merged is visible to other threads,
+     * so events using merged are queued after the one creating it
+     */
+    public void merged(MergeCandidate pair) {
+        double delta = pair.getDelta();
+        // numbers of merged communities follow the order of the log
+        synchronized (queue) {
+            int a = take(pair.a.getHandle());
+            int b = take(pair.b.getHandle());
+            if (a == -1 || b == -1)
+                throw new IllegalStateException("merge of community unknown to the merge log");
+            int merged = nextId++;
+            put(pair.merged.getHandle(), merged);
+            queue.add(new Event(System.nanoTime() - start, a, b, merged, delta, pair.merged.getKnownEigenvalue()));
+        }
+    }
+
+    private void put(int handle, int id) {
+        if (handle >= ids.length) {
+            int length = ids.length;
+            ids = Arrays.copyOf(ids, Math.max(handle + 1, 2 * length));
+            Arrays.fill(ids, length, ids.length, -1);
+        }
+        ids[handle] = id;
+    }
+
+    private int take(int handle) {
+        if (handle < 0 || handle >= ids.length)
+            return -1;
+        int id = ids[handle];
+        ids[handle] = -1;
+        return id;
+    }
+
+    /**
+     * takes whatever is queued and writes it at once, until the end marker
+     */
+    private void write() {
+        ByteBuffer buf = ByteBuffer.allocate(EVENT * 4096).order(ByteOrder.LITTLE_ENDIAN);
+        ArrayList<Event> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (Event e : batch) {
+                    if (e == END) {
+                        flush(buf);
+                        return;
+                    }
+                    if (buf.remaining() < EVENT)
+                        flush(buf);
+                    buf.putLong(e.nanos).putInt(e.a).putInt(e.b).putInt(e.merged).putDouble(e.delta).putDouble(e.ev);
+                }
+                batch.clear();
+                flush(buf);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // close waits for the end marker, nothing else interrupts
+        }
+    }
+
+    private void flush(ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            ch.write(buf);
+        buf.clear();
+    }
+
+    /**
+     * write the events queued so far and close the file; later merges are not logged
+     */
+    @Override
+    public void close() throws IOException {
+        queue.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ch.close();
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * reads a merge log event by event; a torn event at the end, from a run that was killed, is ignored
+     */
+    public static class Reader implements Closeable {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(EVENT * 4096).order(ByteOrder.LITTLE_ENDIAN);
+        private final int initialCount;
+
+        public Reader(File f) throws IOException, FileFormatException {
+            ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+            buf.flip();
+            try {
+                if (!ensure(12) || buf.getInt() != MAGIC)
+                    throw new FileFormatException("not a merge log: " + f);
+                int version = buf.getInt();
+                if (version != VERSION)
+                    throw new FileFormatException("unsupported merge log version " + version);
+                initialCount = buf.getInt();
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return number of communities the run started with, numbered from 0
+         */
+        public int getInitialCount() {
+            return initialCount;
+        }
+
+        /**
+         * @return next event, null at the end of the log
+         */
+        public Event next() throws IOException {
+            if (!ensure(EVENT))
+                return null;
+            return new Event(buf.getLong(), buf.getInt(), buf.getInt(), buf.getInt(), buf.getDouble(), buf.getDouble());
+        }
+
+        /** @return false if the log ends before bytes more bytes */
+        private boolean ensure(int bytes) throws IOException {
+            while (buf.remaining() < bytes) {
+                buf.compact();
+                int read = ch.read(buf);
+                buf.flip();
+                if (read <= 0)
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            ch.close();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package io;
+
+import graph.CompressedSparseRow;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * parses the adjacency part of a metis file in parallel, see GraphReader.Metis(int)
+ * the file is cut into newline aligned chunks; pass 1 counts lines and neighbors per line in every chunk,
+ * a prefix sum over the chunks gives each chunk's first node and each node's offset, pass 2 fills the targets
+ * errors are reported as the sequential parser would: the one at the earliest position in the file wins
+ */
+class ParallelMetisParser {
+    // small chunks waste time on scheduling, large ones balance badly; also keeps each chunk below the mapping limit
+    private static final long MIN_CHUNK = 1 << 22;
+    private static final long MAX_CHUNK = 1 << 30;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final FileChannel ch;
+    private final ForkJoinPool pool;
+    private final int n;
+    private Chunk[] chunks;
+
+    /** neighbor counts and errors of one newline aligned part of the file */
+    private static class Chunk {
+        final long start, end;
+        MappedByteBuffer buf;
+        int[] lineSizes = new int[64];
+        int lines;          // completed lines, i.e. line breaks seen
+        long entries;       // numbers seen
+        int firstLine;      // global index of first line, set after pass 1
+        RuntimeException error;
+        int errorLine;      // local line of error
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /** size of the line being read, which may be incomplete if the file doesn't end in a line break */
+        int lineCount() {
+            return lines + (lines < lineSizes.length && lineSizes[lines] > 0 ? 1 : 0);
+        }
+    }
+
+    /**
+     * @param ch channel of metis file
+     * @param n number of nodes from header
+     */
+    ParallelMetisParser(FileChannel ch, ForkJoinPool pool, int n) {
+        this.ch = ch;
+        this.pool = pool;
+        this.n = n;
+    }
+
+    /**
+     * parse adjacency lines from dataStart to end of file
+     * @param e number of edges from header
+     * @return graph with sorted neighbors, duplicates removed
+     */
+    CompressedSparseRow parse(long dataStart, int e) throws IOException {
+        split(dataStart);
+        invokeAll(this::count);
+
+        // prefix sum over chunks, looking for the first error in file order
+        int line = 0;
+        long entries = 0;
+        for (Chunk c : chunks) {
+            c.firstLine = line;
+            int beyond = firstRowBeyondN(c);
+            // addEdge checks nodeFrom before nodeTo and before the rest of the line is tokenized
+            if (beyond >= 0 && (c.error == null || beyond <= c.errorLine))
+                throw new IllegalArgumentException(String.format("cannot add edge: nodeFrom out of bounds (%d)", c.firstLine + beyond));
+            if (c.error != null)
+                throw c.error;
+            line += c.lines;
+            entries += c.entries;
+        }
+
+        if(entries % 2 != 0)
+            throw new FileFormatException("uneven edge count");
+        if(entries / 2 != e)
+            throw new FileFormatException("actual edge count differs from header");
+        if(line < n)
+            throw new FileFormatException("number of lines is less than number of nodes in header");
+        if (entries > Integer.MAX_VALUE - 8)
+            throw new FileFormatException(String.format("graph with %d adjacency entries is too large to be read into memory", entries));
+
+        int[] offsets = new int[n + 1];
+        for (Chunk c : chunks)
+            for (int i = 0, count = c.lineCount(); i < count; i++)
+                if (c.firstLine + i < n)
+                    offsets[c.firstLine + i + 1] = c.lineSizes[i];
+        for (int i = 0; i < n; i++)
+            offsets[i + 1] += offsets[i];
+
+        int[] targets = new int[(int) entries];
+        invokeAll(c -> fill(c, offsets, targets));
+        chunks = null;
+
+        return new CompressedSparseRow(offsets, removeDuplicates(offsets, targets));
+    }
+
+    /**
+     * cut file from dataStart into chunks ending right after a '\n'
+     */
+    private void split(long dataStart) throws IOException {
+        long size = ch.size();
+        long chunkSize = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, (size - dataStart) / ((long) pool.getParallelism() * CHUNKS_PER_THREAD) + 1));
+        List<Chunk> list = new ArrayList<>();
+        long start = dataStart;
+        while (start < size) {
+            long end = start + chunkSize >= size ? size : nextLine(start + chunkSize, Math.min(size, start + MAX_CHUNK));
+            list.add(new Chunk(start, end));
+            start = end;
+        }
+        chunks = list.toArray(new Chunk[0]);
+    }
+
+    /**
+     * @return position after first '\n' at or after pos, limit if that is the end of the file
+     */
+    private long nextLine(long pos, long limit) throws IOException {
+        long size = ch.size();
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        while (pos < limit) {
+            buf.clear();
+            int read = ch.read(buf, pos);
+            if (read <= 0)
+                break;
+            for (int i = 0; i < read && pos + i < limit; i++)
+                if (buf.get(i) == '\n')
+                    return pos + i + 1;
+            pos += read;
+        }
+        if (limit == size)
+            return limit;
+        throw new FileFormatException(String.format("no line break within %d bytes after byte %d, cannot split file", MAX_CHUNK, pos));
+    }
+
+    /**
+     * pass 1: count neighbors per line, stop at first error
+     */
+    private void count(Chunk c) throws IOException {
+        c.buf = ch.map(FileChannel.MapMode.READ_ONLY, c.start, c.end - c.start);
+        IntTokenizer in = new IntTokenizer(c.buf, c.start);
+        try {
+            int token;
+            while ((token = in.nextToken()) != IntTokenizer.TT_EOF) {
+                if (c.lines == c.lineSizes.length)
+                    c.lineSizes = Arrays.copyOf(c.lineSizes, c.lineSizes.length * 2);
+                if (token == IntTokenizer.TT_EOL) {
+                    c.lines++;
+                    continue;
+                }
+                if (in.intValue() >= n)
+                    throw new IllegalArgumentException(String.format("cannot add edge: nodeTo out of bounds (%d)", in.intValue()));
+                c.lineSizes[c.lines]++;
+                c.entries++;
+            }
+        } catch (RuntimeException ex) {
+            c.error = ex;
+            c.errorLine = c.lines;
+        }
+    }
+
+    /**
+     * @return local index of first line in c that has neighbors but no node, -1 if there is none
+     */
+    private int firstRowBeyondN(Chunk c) {
+        for (int i = Math.max(0, n - c.firstLine), count = c.lineCount(); i < count; i++)
+            if (c.lineSizes[i] > 0)
+                return i;
+        return -1;
+    }
+
+    /**
+     * pass 2: write neighbors of chunk's lines to their place in targets
+     */
+    private void fill(Chunk c, int[] offsets, int[] targets) throws IOException {
+        IntTokenizer in = new IntTokenizer(c.buf, c.start);
+        int row = c.firstLine;
+        int pos = row < n ? offsets[row] : 0;
+        int token;
+        while ((token = in.nextToken()) != IntTokenizer.TT_EOF)
+            if (token == IntTokenizer.TT_NUMBER)
+                targets[pos++] = in.intValue();
+            else if (++row < n)
+                pos = offsets[row];
+        c.buf = null;
+    }
+
+    /**
+     * sort rows and drop repeated neighbors within a row like addEdge does
+     * rows are processed in parallel, the array is only compacted if something was removed
+     * @return targets, compacted in place; offsets are updated
+     */
+    private int[] removeDuplicates(int[] offsets, int[] targets) throws IOException {
+        int[] sizes = new int[n];
+        int rowsPerTask = Math.max(1024, n / (pool.getParallelism() * CHUNKS_PER_THREAD) + 1);
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int from = 0; from < n; from += rowsPerTask) {
+            final int lo = from, hi = Math.min(n, from + rowsPerTask);
+            tasks.add(() -> {
+                boolean removed = false;
+                for (int i = lo; i < hi; i++) {
+                    sizes[i] = sortUnique(targets, offsets[i], offsets[i + 1]);
+                    removed |= sizes[i] != offsets[i + 1] - offsets[i];
+                }
+                return removed;
+            });
+        }
+
+        boolean removed = false;
+        for (Boolean b : get(pool.invokeAll(tasks)))
+            removed |= b;
+        if (!removed)
+            return targets;
+
+        int e = 0;
+        for (int i = 0; i < n; i++) {
+            int start = offsets[i];
+            offsets[i] = e;
+            System.arraycopy(targets, start, targets, e, sizes[i]);
+            e += sizes[i];
+        }
+        offsets[n] = e;
+        return targets;
+    }
+
+    /**
+     * sort row and move distinct neighbors to its front
+     * @return number of distinct neighbors
+     */
+    private static int sortUnique(int[] targets, int start, int end) {
+        boolean sorted = true;
+        for (int i = start + 1; i < end && sorted; i++)
+            sorted = targets[i - 1] < targets[i];
+        if (sorted)
+            return end - start;
+
+        Arrays.sort(targets, start, end);
+        int last = start;
+        for (int i = start + 1; i < end; i++)
+            if (targets[i] != targets[last])
+                targets[++last] = targets[i];
+        return last + 1 - start;
+    }
+
+    private interface ChunkTask {
+        void run(Chunk c) throws IOException;
+    }
+
+    private void invokeAll(ChunkTask task) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Chunk c : chunks)
+            tasks.add(() -> {
+                task.run(c);
+                return null;
+            });
+        get(pool.invokeAll(tasks));
+    }
+
+    /**
+     * wait for all futures, rethrowing the first failure as thrown by the task
+     */
+    private static <T> List<T> get(List<Future<T>> futures) throws IOException {
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> f : futures)
+                results.add(f.get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading metis file", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+        return results;
+    }
+}
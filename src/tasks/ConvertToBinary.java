@@ -0,0 +1,35 @@
+package tasks;
+
+import graph.Graph;
+import io.GraphReader;
+import io.GraphWriter;
+
+import java.io.IOException;
+
+/**
+ * converts a Metis graph to the binary csr format, which later tasks can memory map instead of parsing
+ */
+public class ConvertToBinary {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("usage: ConvertToBinary <graph> [output]");
+            System.out.println("\tgraph: path to Metis graph");
+            System.out.println("\toutput: path to write binary graph to, without extension (default: graph path without extension)");
+            System.exit(1);
+        }
+
+        String output = args.length == 2 ? args[1] : args[0].replaceFirst("\\.metis$", "");
+
+        long stime = System.currentTimeMillis();
+        GraphReader gr = new GraphReader();
+        gr.setInputFormat(new GraphReader.Metis());
+        gr.setReturnFormat(new GraphReader.Csr());
+        Graph g = gr.fromFile(args[0]);
+        System.out.printf("read %d nodes, %d edges in %.1fs%n", g.getNodeCount(), g.getUndirectedEdgeCount(), (System.currentTimeMillis() - stime) / 1000d);
+
+        GraphWriter gw = new GraphWriter();
+        gw.setFormat(new GraphWriter.Binary());
+        gw.toFile(g, output, true);
+        System.out.println("wrote " + output + new GraphWriter.Binary().getExtension());
+    }
+}
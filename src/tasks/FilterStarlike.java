@@ -1,5 +1,6 @@
 package tasks;
 
+import graph.EigenvalueCache;
 import graph.Graph;
 import graph.InducedSubgraph;
 import io.GraphReader;
@@ -29,6 +30,8 @@ public class FilterStarlike {
         nchecked = 0;
         nremoved = 0;
 
+        EigenvalueCache.installFromProperty();
+
         GraphReader gw = new GraphReader();
         gw.setInputFormat(new GraphReader.Metis());
         gw.setReturnFormat(new GraphReader.List());
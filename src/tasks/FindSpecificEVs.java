@@ -1,5 +1,6 @@
 package tasks;
 
+import graph.EigenvalueCache;
 import graph.Graph;
 import io.GraphReader;
 
@@ -15,6 +16,8 @@ public class FindSpecificEVs {
         int numGraphs = 100;
         int minimumSize = 0;
 
+        EigenvalueCache.installFromProperty();
+
         try (BufferedReader br = new BufferedReader(new FileReader(new File("resources/communitiesWithStars.txt")))) {
             GraphReader gr = new GraphReader();
             gr.setReturnFormat(new GraphReader.List());
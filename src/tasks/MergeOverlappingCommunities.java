@@ -1,51 +1,96 @@
 package tasks;
 
+import graph.CommunityStore;
+import graph.EigenvalueCache;
 import graph.Graph;
 import graph.InducedSubgraph;
 import index.InverseIndex;
 import index.MergeCandidate;
+import index.MergeScheduler;
+import io.CommunityCheckpoint;
+import io.CommunityList;
 import io.GraphReader;
 import io.GraphWriter;
+import io.MergeLog;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public class MergeOverlappingCommunities {
     private static long stime;
-    private static long numMerged = 0;
-    private static double evImprovement = 0;
-    private static long numPairs = 0;
+    // updated by all worker threads
+    private static final LongAdder numMerged = new LongAdder();
+    private static final DoubleAdder evImprovement = new DoubleAdder();
+    private static final LongAdder numPairs = new LongAdder();
+    // pairs rejected by each stage of isMergeable
+    private static final LongAdder rejectedByNodes = new LongAdder();
+    private static final LongAdder rejectedByEdges = new LongAdder();
+    private static final LongAdder rejectedByCut = new LongAdder();
+    private static final LongAdder rejectedByLanczos = new LongAdder();
+    private static final LongAdder rejectedByDelta = new LongAdder();
 
     private static double edgeOverlapThreshold;
     private static double nodeOverlapThreshold;
     private static final double evDeltaThreshold = 0.01;
+    // the solver stops at a residual of about 1e-9, keep bounds from rejecting pairs it would have accepted
+    private static final double boundSlack = 1e-6;
+    private static boolean cutBound = true;
+    private static int lanczosSteps = 0;
+    // nodes with at least this many neighbors get a hash index for edge lookups
+    private static final int hubDegree = 1024;
 
     private static String pathToGraph;
     private static String pathToCommunities;
 
     private static int numThreads;
     private static int walltime;
-    private static boolean walltimeExceeded = false;
+    private static volatile boolean walltimeExceeded = false;
     private static InverseIndex index;
-    private static ArrayList<InducedSubgraph> subgs;
+    // all communities, in a few large arrays instead of an object each
+    private static CommunityStore store;
 
     public static int evCompareStrategy;
     public static double candidatesToCheckPerc;
 
+    // directory to checkpoint communities to and resume from, null for none
+    private static File checkpointDir;
+    private static int checkpointInterval = 60;
+    private static volatile CommunityCheckpoint checkpoint;
+    // log of all merges written while merging, instead of the communities at the end; null for none
+    private static File mergeLogFile;
+    private static volatile MergeLog mergeLog;
+
+    // seed of the deterministic scheduler, null for random candidates until the walltime is exceeded
+    private static Long seed;
+
     // number of communities to skip for each one read, for testing purposes (subtract 1)
     private static final int skip = 1;
 
     public static void main(String[] args) throws IOException, InterruptedException {
-        if (args.length != 8) {
-            System.out.println("usage: MergeOverlappingCommunities <graph> <communities> <numThreads> <walltimeSeconds> <edgeOverlapThreshold> <nodeOverlapThreshold> <evCompareStrategy> <candidatesToCheckPerc>");
-            System.out.println("\tgraph: path to Metis graph");
+        if (args.length < 8 || !parseOptions(args)) {
+            System.out.println("usage: MergeOverlappingCommunities <graph> <communities> <numThreads> <walltimeSeconds> <edgeOverlapThreshold> <nodeOverlapThreshold> <evCompareStrategy> <candidatesToCheckPerc> [name=value...]");
+            System.out.println("\tgraph: path to Metis graph or binary graph (.csr)");
             System.out.println("\tcommunities: path to list of communities");
             System.out.println("\tnumThreads: number of threads searching for mergeable communities to run in parallel");
-            System.out.println("\twalltimeSeconds: number of seconds after which to halt above threads");
+            System.out.println("\twalltimeSeconds: number of seconds after which to halt above threads (with seed: upper bound, 0 for none)");
             System.out.println("\tedgeOverlapThreshold: A float. Parameter for a heuristic used to determine whether two communities should be merged.");
             System.out.println("\tnodeOverlapThreshold: Also a float and a parameter for a heuristic.");
             System.out.println("\tevCompareStrategy: 0 (ev delta is measured against the larger community) | 1 (measured vs. average of both)");
             System.out.println("\tcandidatesToCheckPerc: in [0, 1] (% of possible merging candidates to check before picking the best, but at least 1)");
+            System.out.println("options:");
+            System.out.println("\tseed=<long>: merge in seeded rounds until no mergeable pair is left, reproducible for any numThreads");
+            System.out.println("\tcutBound=<true|false>: reject pairs by a cut bound on the merged eigenvalue before computing it (default true)");
+            System.out.println("\tlanczosSteps=<int>: if at least 2, reject pairs by the bound from this many lanczos steps next (default 0, off)");
+            System.out.println("\tcheckpoint=<dir>: save communities to dir while merging, resume from it instead of reading communities if it holds a checkpoint");
+            System.out.println("\tcheckpointInterval=<seconds>: time between two writes of the checkpoint (default 60)");
+            System.out.println("\tmergeLog=<file>: log merges to file while merging instead of writing the communities at the end (see ReplayMergeLog), not with checkpoint");
+            System.out.println("\twarmStart=<true|false>: keep fiedler vectors of computed eigenvalues to start from on later merges, one float per node; eigenvalues found in the eigenvalue cache come without one (default false)");
             System.exit(1);
         } else {
             pathToGraph = args[0];
@@ -55,51 +100,80 @@ public class MergeOverlappingCommunities {
             edgeOverlapThreshold = Double.parseDouble(args[4]);
             nodeOverlapThreshold = Double.parseDouble(args[5]);
             evCompareStrategy = Integer.parseInt(args[6]);
-            candidatesToCheckPerc = Integer.parseInt(args[7]);
+            candidatesToCheckPerc = Double.parseDouble(args[7]);
+            if (candidatesToCheckPerc < 0 || candidatesToCheckPerc > 1)
+                throw new IllegalArgumentException("candidatesToCheckPerc must be in [0, 1], got " + args[7]);
         }
 
         Runtime.getRuntime().addShutdownHook(new Thread(new ShutdownHook()));
 
+        // optional eigenvalue cache shared between runs, enabled with -DevCache=<file>
+        EigenvalueCache.installFromProperty();
+
         GraphReader gr = new GraphReader();
-        gr.setInputFormat(new GraphReader.Metis());
-        gr.setReturnFormat(new GraphReader.List());
+        // binary graphs (see ConvertToBinary) are memory mapped instead of parsed
+        if (pathToGraph.endsWith(new GraphWriter.Binary().getExtension())) {
+            gr.setInputFormat(new GraphReader.Binary());
+            gr.setReturnFormat(new GraphReader.Mapped());
+        } else {
+            gr.setInputFormat(new GraphReader.Metis(numThreads));
+            gr.setReturnFormat(new GraphReader.List());
+        }
 
         Graph pokec = gr.fromFile(pathToGraph);
+        System.out.printf("indexed %d hubs%n", pokec.indexHubs(hubDegree));
 
-        gr.setReturnFormat(new GraphReader.Subgraph());
-        gr.setInputFormat(new GraphReader.NodeListWithEvs(pokec));
-
-        subgs = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(new File(pathToCommunities)))) {
-            String line;
+        ArrayList<InducedSubgraph> restored = checkpointDir == null ? null : CommunityCheckpoint.restore(checkpointDir, pokec);
+        if (restored != null) {
+            System.out.printf("resuming from checkpoint %s%n", checkpointDir);
+            store = new CommunityStore(pokec);
+            for (InducedSubgraph c : restored)
+                store.adopt(c);
+            restored = null;
+        } else {
             if(skip != 1)
                 System.err.println("WARNING: SKIPPING " + (skip-1) + " COMMUNITIES FOR EACH ONE READ");
-            int i = 0;
-            while ((line = br.readLine()) != null) {
-                if (i++ % skip != 0)
-                    continue;
-                InducedSubgraph g = (InducedSubgraph) gr.fromString(line);
-                subgs.add(g);
-            }
+            store = CommunityList.read(new File(pathToCommunities), true, numThreads).toStore(pokec, skip);
         }
 
-        index = new InverseIndex(pokec, subgs);
+        index = new InverseIndex(store);
+        Consumer<MergeCandidate> listener = null;
+        if (checkpointDir != null) {
+            checkpoint = new CommunityCheckpoint(checkpointDir, 1000L * checkpointInterval);
+            checkpoint.start(store);
+            listener = checkpoint::merged;
+        }
+        if (mergeLogFile != null) {
+            mergeLog = new MergeLog(mergeLogFile, index.getCommunities());
+            listener = listener == null ? mergeLog::merged : listener.andThen(mergeLog::merged);
+        }
+        index.setMergeListener(listener);
+
+        System.out.printf("indexed %d items%nstarting...%n", store.getCommunityCount());
+        if (seed != null) {
+            runScheduler();
+            return;
+        }
 
-        System.out.printf("indexed %d items%nstarting...%n", subgs.size());
         Thread[] threads = new Thread[numThreads];
         for (int i = 0; i < threads.length; i++) {
             threads[i] = new Thread(() -> {
                 while (!walltimeExceeded) {
+                    // only a is locked while its partners are evaluated; the best partner is locked afterwards
+                    // without waiting, falling back to the next best if another thread got it first
                     MergeCandidate candidate = index.getCandidate();
-                    numPairs++;
-
-                    while(candidate.next()) { // TODO IMPLEMENT LOOKING FOR BEST MATCH AMONG N (LOCKING PROBLEM!)
-                        if (candidate.nodesOverlapping(nodeOverlapThreshold)
-                                && candidate.edgesOverlapping(edgeOverlapThreshold)
-                                && candidate.getDelta() >= evDeltaThreshold) {
-                            index.update(candidate);
-                            updateEvDeltaCounter(candidate.getDelta());
-                            break;
+                    numPairs.increment();
+
+                    int k = partnersToCheck(candidate.getSourceSize());
+                    boolean merged = false;
+                    while (!merged && candidate.hasNext()) {
+                        for (MergeCandidate pair : candidate.nextBest(k, MergeOverlappingCommunities::isMergeable, true)) {
+                            if (candidate.lock(pair)) {
+                                index.update(candidate);
+                                updateEvDeltaCounter(candidate.getDelta());
+                                merged = true;
+                                break;
+                            }
                         }
                     }
 
@@ -122,6 +196,123 @@ public class MergeOverlappingCommunities {
             threads[i].join();
     }
 
+    /**
+     * merge in seeded rounds until no mergeable pair is left or the walltime, if any, is exceeded
+     */
+    private static void runScheduler() throws InterruptedException {
+        MergeScheduler scheduler = new MergeScheduler(index, new MergeScheduler.Policy() {
+            @Override
+            public boolean mergeable(MergeCandidate candidate) {
+                return isMergeable(candidate);
+            }
+
+            @Override
+            public int partnersToCheck(int overlapping) {
+                return MergeOverlappingCommunities.partnersToCheck(overlapping);
+            }
+
+            @Override
+            public void merged(MergeCandidate candidate) {
+                updateEvDeltaCounter(candidate.getDelta());
+            }
+
+            @Override
+            public void examined(InducedSubgraph a) {
+                numPairs.increment();
+            }
+        }, numThreads, seed);
+
+        stime = System.currentTimeMillis();
+        long deadline = walltime > 0 ? stime + 1000L * walltime : Long.MAX_VALUE;
+        if (scheduler.run(index.getCommunities(), deadline))
+            System.out.printf("no mergeable pairs left after %d rounds%n", scheduler.getRounds());
+        else
+            System.out.printf("exceeded walltime in round %d, stopping...%n", scheduler.getRounds());
+    }
+
+    /**
+     * @return number of partners to evaluate before picking the best, candidatesToCheckPerc of them but at least 1
+     */
+    private static int partnersToCheck(int overlapping) {
+        return Math.max(1, (int) Math.ceil(candidatesToCheckPerc * overlapping));
+    }
+
+    /**
+     * tests from cheap to expensive, the eigenvalue of the merged community is only computed if the bounds on it
+     * don't rule out a sufficient delta
+     */
+    private static boolean isMergeable(MergeCandidate candidate) {
+        if (!candidate.nodesOverlapping(nodeOverlapThreshold)) {
+            rejectedByNodes.increment();
+            return false;
+        }
+        if (!candidate.edgesOverlapping(edgeOverlapThreshold)) {
+            rejectedByEdges.increment();
+            return false;
+        }
+        if (cutBound && candidate.getDelta(candidate.getMergedEvCutBound()) < evDeltaThreshold - boundSlack) {
+            rejectedByCut.increment();
+            return false;
+        }
+        if (lanczosSteps > 0 && candidate.getDelta(candidate.getMergedEvLanczosBound(lanczosSteps)) < evDeltaThreshold - boundSlack) {
+            rejectedByLanczos.increment();
+            return false;
+        }
+        if (candidate.getDelta() < evDeltaThreshold) {
+            rejectedByDelta.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * parse name=value options following the positional arguments
+     * @return false if an option is unknown or malformed
+     */
+    private static boolean parseOptions(String[] args) {
+        for (int i = 8; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq < 0)
+                return false;
+            String value = args[i].substring(eq + 1);
+            switch (args[i].substring(0, eq)) {
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "cutBound":
+                    cutBound = Boolean.parseBoolean(value);
+                    break;
+                case "checkpoint":
+                    checkpointDir = new File(value);
+                    break;
+                case "checkpointInterval":
+                    checkpointInterval = Integer.parseInt(value);
+                    if (checkpointInterval < 1)
+                        return false;
+                    break;
+                case "mergeLog":
+                    mergeLogFile = new File(value);
+                    break;
+                case "warmStart":
+                    Graph.setKeepFiedlerVectors(Boolean.parseBoolean(value));
+                    break;
+                case "lanczosSteps":
+                    lanczosSteps = Integer.parseInt(value);
+                    if (lanczosSteps == 1 || lanczosSteps < 0)
+                        return false;
+                    break;
+                default:
+                    return false;
+            }
+        }
+        // a resumed run starts from communities no file holds, a merge log of it couldn't be replayed
+        if (checkpointDir != null && mergeLogFile != null) {
+            System.out.println("checkpoint and mergeLog can't be used together");
+            return false;
+        }
+        return true;
+    }
+
     /**
      * prints stats and saves state of communities, eigenvalues
      */
@@ -130,17 +321,48 @@ public class MergeOverlappingCommunities {
         public void run() {
             float runtime = (System.currentTimeMillis() - stime) / 1000f;
             System.out.println("exiting...");
+            if (checkpoint != null) {
+                try {
+                    checkpoint.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (mergeLog != null) {
+                try {
+                    mergeLog.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
             System.out.println("time: " + runtime);
-            System.out.println("#pairs: " + numPairs);
-            System.out.println("pairs/s: " + (numPairs / (((System.currentTimeMillis() - stime)) / 1000d)));
-            System.out.println("#merges: " + numMerged);
-            System.out.println("merges/s: " + (numMerged / (((System.currentTimeMillis() - stime)) / 1000d)));
-            System.out.println("avg ev improvement: " + (evImprovement / (2 * numMerged)));
-            System.out.println("remaining communities: " + subgs.size());
+            long pairs = numPairs.sum();
+            long merged = numMerged.sum();
+            System.out.println("#pairs: " + pairs);
+            System.out.println("pairs/s: " + (pairs / (((System.currentTimeMillis() - stime)) / 1000d)));
+            System.out.println("pairs/s per thread: " + (pairs / (((System.currentTimeMillis() - stime)) / 1000d) / numThreads));
+            System.out.println("#rejected by node overlap: " + rejectedByNodes.sum());
+            System.out.println("#rejected by edge overlap: " + rejectedByEdges.sum());
+            System.out.println("#rejected by cut bound: " + rejectedByCut.sum());
+            System.out.println("#rejected by lanczos bound: " + rejectedByLanczos.sum());
+            System.out.println("#rejected by ev delta: " + rejectedByDelta.sum());
+            System.out.println("#merges: " + merged);
+            System.out.println("merges/s: " + (merged / (((System.currentTimeMillis() - stime)) / 1000d)));
+            System.out.println("avg ev improvement: " + (evImprovement.sum() / (2 * merged)));
+
+            if (mergeLog != null) {
+                System.out.printf("merges logged to %s, see ReplayMergeLog for the resulting communities%n", mergeLogFile);
+                System.out.println("done.");
+                return;
+            }
+
+            // shut down before the index was built: nothing has been merged
+            Collection<InducedSubgraph> communities = store != null ? sortedByNodes(store.communities()) : new ArrayList<>();
+            System.out.println("remaining communities: " + communities.size());
 
             System.out.println("writing new evs...");
             try (BufferedWriter bw = new BufferedWriter(new FileWriter(new File(String.format("./mergedEigenvalues-edge%f-node%f.txt", edgeOverlapThreshold, nodeOverlapThreshold))))) {
-                for(InducedSubgraph subg : subgs)
+                for(InducedSubgraph subg : communities)
                     bw.write(subg.getEigenvalue() +"\n");
             } catch (IOException e) {
                 e.printStackTrace();
@@ -148,10 +370,12 @@ public class MergeOverlappingCommunities {
 
             System.out.println("writing new nodelists...");
             try (BufferedWriter bw = new BufferedWriter(new FileWriter(new File(String.format("./mergedCommunities-edge%f-node%f.txt", edgeOverlapThreshold, nodeOverlapThreshold))))) {
-                for(InducedSubgraph subg : subgs) {
-                    for (int i : subg.toNodeList())
-                        bw.write(i +" ");
-                    bw.write("\n");
+                StringBuilder sb = new StringBuilder();
+                for(InducedSubgraph subg : communities) {
+                    int[] nodes = new int[subg.getNodeCount()];
+                    for (int i = 0; i < nodes.length; i++)
+                        nodes[i] = subg.getOriginalNodeID(i);
+                    GraphWriter.writeNodeList(nodes, sb, bw);
                 }
             } catch (IOException e) {
                 e.printStackTrace();
@@ -161,6 +385,20 @@ public class MergeOverlappingCommunities {
         }
     }
 
+    /**
+     * the index is unordered; sorted by nodes, runs with the same seed write identical files
+     */
+    private static ArrayList<InducedSubgraph> sortedByNodes(Collection<InducedSubgraph> communities) {
+        ArrayList<Map.Entry<int[], InducedSubgraph>> keyed = new ArrayList<>(communities.size());
+        for (InducedSubgraph c : communities)
+            keyed.add(Map.entry(c.getSortedNodes(), c));
+        keyed.sort(Map.Entry.comparingByKey(Arrays::compare));
+        ArrayList<InducedSubgraph> sorted = new ArrayList<>(keyed.size());
+        for (Map.Entry<int[], InducedSubgraph> e : keyed)
+            sorted.add(e.getValue());
+        return sorted;
+    }
+
     private synchronized static void printMerge(MergeCandidate pair) {
         System.out.println("MERGING:");
         System.out.println("\t(" + pair.a.getEigenvalue() + ") " + pair.a.toNodeList());
@@ -171,8 +409,8 @@ public class MergeOverlappingCommunities {
         System.out.println();
     }
 
-    private synchronized static void updateEvDeltaCounter(double delta) {
-        evImprovement += delta;
-        numMerged++;
+    private static void updateEvDeltaCounter(double delta) {
+        evImprovement.add(delta);
+        numMerged.increment();
     }
 }
@@ -1,38 +1,137 @@
 package tasks;
 
+import graph.EigenvalueCache;
 import graph.Graph;
 import graph.InducedSubgraph;
 import io.GraphReader;
+import io.GraphWriter;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.*;
 
+/**
+ * pipeline: one reader thread cuts the community file into batches, a work stealing pool computes eigenvalues,
+ * one writer thread writes batches back in input order
+ */
 public class PrecalculateAllEVs {
-    public static void main(String[] args) throws IOException {
-        // look for these files in resources folder, give filenames without .txt ending!
-        String[] files = {"NCe1n0", "NCe2n0"};
-
-        for (String file : files)
-            try(BufferedReader br = new BufferedReader(new FileReader(new File("resources/" + file + ".txt")));
-                BufferedWriter bw = new BufferedWriter(new FileWriter(new File("resources/" + file + "WithEvs.txt")))) {
-                GraphReader gr = new GraphReader();
-                gr.setInputFormat(new GraphReader.Metis());
-                gr.setReturnFormat(new GraphReader.List());
-                Graph pokec = gr.fromFile("resources/pokec.metis");
-
-                gr.setReturnFormat(new GraphReader.Subgraph());
-                gr.setInputFormat(new GraphReader.NodeList(pokec));
-                InducedSubgraph subg;
-                double ev;
-
-                String line;
-                while ((line = br.readLine()) != null) {
-                    subg = (InducedSubgraph) gr.fromString(line);
-                    ev = subg.getEigenvalue();
-                    bw.write(ev + "");
-                    for(int i : subg.toNodeList())
-                        bw.write(" " + i);
-                    bw.write("\n");
+    // communities per task; large enough to amortize scheduling, small enough to balance uneven community sizes
+    private static final int batchSize = 64;
+    // batches in flight per worker, bounds memory use if the writer or reader falls behind
+    private static final int batchesPerThread = 8;
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        if (args.length < 3) {
+            System.out.println("usage: PrecalculateAllEVs <graph> <numThreads> <communities>...");
+            System.out.println("\tgraph: path to Metis graph or binary graph (.csr)");
+            System.out.println("\tnumThreads: number of threads computing eigenvalues");
+            System.out.println("\tcommunities: one or more lists of communities, for x.txt the result is written to xWithEvs.txt");
+            System.exit(1);
+        }
+
+        String pathToGraph = args[0];
+        int numThreads = Integer.parseInt(args[1]);
+
+        EigenvalueCache.installFromProperty();
+
+        GraphReader gr = new GraphReader();
+        // binary graphs (see ConvertToBinary) are memory mapped instead of parsed
+        if (pathToGraph.endsWith(new GraphWriter.Binary().getExtension())) {
+            gr.setInputFormat(new GraphReader.Binary());
+            gr.setReturnFormat(new GraphReader.Mapped());
+        } else {
+            gr.setInputFormat(new GraphReader.Metis(numThreads));
+            gr.setReturnFormat(new GraphReader.Csr());
+        }
+        Graph pokec = gr.fromFile(pathToGraph);
+
+        gr.setReturnFormat(new GraphReader.Subgraph());
+        gr.setInputFormat(new GraphReader.NodeList(pokec));
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        long total = 0;
+        long stime = System.currentTimeMillis();
+        try {
+            for (int i = 2; i < args.length; i++) {
+                String in = args[i];
+                String out = (in.endsWith(".txt") ? in.substring(0, in.length() - 4) : in) + "WithEvs.txt";
+                long ftime = System.currentTimeMillis();
+                long count = process(new File(in), new File(out), gr, pool, numThreads);
+                total += count;
+                System.out.printf("%s: %d communities in %.1fs (%.1f/s)%n", in, count, (System.currentTimeMillis() - ftime) / 1000d, 1000d * count / Math.max(1, System.currentTimeMillis() - ftime));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.printf("total: %d communities in %.1fs (%.1f/s)%n", total, (System.currentTimeMillis() - stime) / 1000d, 1000d * total / Math.max(1, System.currentTimeMillis() - stime));
+    }
+
+    /**
+     * @return number of communities processed
+     */
+    private static long process(File in, File out, GraphReader gr, ForkJoinPool pool, int numThreads) throws IOException, InterruptedException, ExecutionException {
+        // the queue holds results in input order; the writer blocks on the head until that batch is done
+        BlockingQueue<Future<String>> results = new ArrayBlockingQueue<>(numThreads * batchesPerThread);
+        Future<String> endOfInput = CompletableFuture.completedFuture(null);
+
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        Future<Void> written = writer.submit(() -> {
+            try (BufferedWriter bw = new BufferedWriter(new FileWriter(out), 1 << 16)) {
+                Future<String> batch;
+                while ((batch = results.take()) != endOfInput)
+                    bw.write(batch.get());
+            }
+            return null;
+        });
+
+        long count = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(in), 1 << 16)) {
+            ArrayList<String> lines = new ArrayList<>(batchSize);
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+                count++;
+                if (lines.size() == batchSize) {
+                    ArrayList<String> batch = lines;
+                    enqueue(results, pool.submit(() -> computeBatch(batch, gr)), written);
+                    lines = new ArrayList<>(batchSize);
                 }
             }
+            if (!lines.isEmpty()) {
+                ArrayList<String> batch = lines;
+                enqueue(results, pool.submit(() -> computeBatch(batch, gr)), written);
+            }
+            enqueue(results, endOfInput, written);
+            written.get();
+        } finally {
+            // only interrupts the writer if reading failed, otherwise it has already finished
+            writer.shutdownNow();
+        }
+
+        return count;
+    }
+
+    /**
+     * a failed writer would never drain the queue, so don't block forever on it but rethrow its exception
+     */
+    private static void enqueue(BlockingQueue<Future<String>> results, Future<String> batch, Future<Void> written) throws InterruptedException, ExecutionException {
+        while (!results.offer(batch, 1, TimeUnit.SECONDS))
+            if (written.isDone())
+                written.get();
+    }
+
+    /**
+     * @return lines "ev node node ..." for all communities in lines
+     */
+    private static String computeBatch(ArrayList<String> lines, GraphReader gr) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            InducedSubgraph subg = (InducedSubgraph) gr.fromString(line);
+            sb.append(subg.getEigenvalue());
+            for (int node : subg.toNodeList())
+                sb.append(' ').append(node);
+            sb.append('\n');
+        }
+        return sb.toString();
     }
 }
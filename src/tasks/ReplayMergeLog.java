@@ -0,0 +1,77 @@
+package tasks;
+
+import graph.NodeSets;
+import io.CommunityList;
+import io.FileFormatException;
+import io.GraphWriter;
+import io.MergeLog;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * rebuilds the communities after any number of merges from the communities a run started with and its merge log
+ * (see MergeOverlappingCommunities option mergeLog); works on node lists only, the graph is not needed
+ */
+public class ReplayMergeLog {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args.length > 4) {
+            System.out.println("usage: ReplayMergeLog <communities> <mergeLog> <output> [merges]");
+            System.out.println("\tcommunities: path to list of communities with eigenvalues the run started with");
+            System.out.println("\tmergeLog: path to merge log written by the run");
+            System.out.println("\toutput: prefix of the files to write, <output>Communities.txt and <output>Eigenvalues.txt");
+            System.out.println("\tmerges: number of merges to replay (default: all)");
+            System.exit(1);
+        }
+        long limit = args.length == 4 ? Long.parseLong(args[3]) : Long.MAX_VALUE;
+
+        // community i of the run: nodes.get(i), null once merged into another
+        CommunityList initial = CommunityList.read(new File(args[0]), true, Runtime.getRuntime().availableProcessors());
+        ArrayList<int[]> nodes = new ArrayList<>(initial.size());
+        ArrayList<Double> evs = new ArrayList<>(initial.size());
+        for (int i = 0; i < initial.size(); i++) {
+            int[] community = initial.getNodes(i);
+            Arrays.sort(community);
+            nodes.add(community);
+            evs.add(initial.getEigenvalue(i));
+        }
+
+        long merges = 0;
+        long lastNanos = 0;
+        try (MergeLog.Reader log = new MergeLog.Reader(new File(args[1]))) {
+            if (log.getInitialCount() != nodes.size())
+                throw new FileFormatException(String.format("merge log starts with %d communities, %s has %d", log.getInitialCount(), args[0], nodes.size()));
+            MergeLog.Event e;
+            while (merges < limit && (e = log.next()) != null) {
+                int[] a = nodes.get(e.a), b = nodes.get(e.b);
+                if (a == null || b == null || e.merged != nodes.size())
+                    throw new FileFormatException("merge log is inconsistent at merge " + merges);
+                nodes.add(NodeSets.union(a, b));
+                evs.add(e.ev);
+                nodes.set(e.a, null);
+                nodes.set(e.b, null);
+                merges++;
+                lastNanos = e.nanos;
+            }
+        }
+        System.out.printf("replayed %d merges, the last one %.1fs into the run%n", merges, lastNanos / 1e9);
+
+        int remaining = 0;
+        StringBuilder sb = new StringBuilder();
+        try (BufferedWriter communities = new BufferedWriter(new FileWriter(args[2] + "Communities.txt"));
+             BufferedWriter eigenvalues = new BufferedWriter(new FileWriter(args[2] + "Eigenvalues.txt"))) {
+            for (int i = 0; i < nodes.size(); i++) {
+                if (nodes.get(i) == null)
+                    continue;
+                GraphWriter.writeNodeList(nodes.get(i), sb, communities);
+                eigenvalues.write(evs.get(i) + "\n");
+                remaining++;
+            }
+        }
+        System.out.printf("wrote %d communities%n", remaining);
+    }
+}
@@ -0,0 +1,138 @@
+package graph;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import static graph.Fixtures.path;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommunityStoreTest {
+
+    @Test
+    void testViews() {
+        Graph main = path(10);
+        CommunityStore store = new CommunityStore(main);
+        int a = store.add(new int[]{4, 2, 3, 3}, 0.5);
+        int b = store.add(new int[]{5, 6, 7}, -1);
+        assertEquals(2, store.getCommunityCount());
+        assertEquals(3, store.getNodeCount(a));
+        assertThrows(IllegalArgumentException.class, () -> store.add(new int[]{1, 10}, -1));
+
+        InducedSubgraph viewA = store.view(a);
+        assertArrayEquals(new int[]{2, 3, 4}, viewA.getSortedNodes());
+        assertEquals(0.5, viewA.getKnownEigenvalue());
+        assertEquals(store.view(a), viewA);
+        assertEquals(store.view(a).hashCode(), viewA.hashCode());
+        assertNotEquals(store.view(b), viewA);
+
+        // eigenvalues and locks are shared by all views of a handle
+        double ev = store.view(b).getEigenvalue();
+        assertEquals(ev, store.getEigenvalue(b));
+        assertEquals(ev, store.view(b).getKnownEigenvalue());
+        assertTrue(viewA.tryLock());
+        assertFalse(store.view(a).tryLock());
+        assertTrue(store.isLocked(a));
+        store.view(a).retire();
+        assertTrue(viewA.isRetired());
+        assertFalse(viewA.tryLock());
+        assertEquals(1, store.getCommunityCount());
+        assertEquals(1, store.communities().size());
+        assertFalse(store.communities().contains(viewA));
+        assertTrue(store.communities().contains(store.view(b)));
+    }
+
+    @Test
+    void testAdopt() {
+        Graph main = path(10);
+        CommunityStore store = new CommunityStore(main);
+        InducedSubgraph s = new InducedSubgraph(main, new int[]{3, 1, 2});
+        s.setEigenvalue(0.25);
+        assertTrue(s.tryLock());
+        int h = store.adopt(s);
+
+        assertEquals(h, s.getHandle());
+        assertSame(store, s.getStore());
+        assertEquals(s, store.view(h));
+        assertTrue(store.isLocked(h));
+        assertEquals(0.25, store.getEigenvalue(h));
+        assertArrayEquals(new int[]{1, 2, 3}, store.view(h).getSortedNodes());
+        s.unlock();
+        assertFalse(store.isLocked(h));
+        assertThrows(IllegalArgumentException.class, () -> store.adopt(s));
+        assertThrows(IllegalArgumentException.class, () -> store.adopt(new InducedSubgraph(path(10), new int[]{1})));
+    }
+
+    @Test
+    void testCompact() throws InterruptedException {
+        Graph main = path(1000);
+        CommunityStore store = new CommunityStore(main);
+        Random rnd = new Random(2);
+        ArrayList<int[]> nodes = new ArrayList<>();
+        for (int k = 0; k < 2000; k++) {
+            int from = rnd.nextInt(900);
+            int[] community = new int[1 + rnd.nextInt(100)];
+            for (int i = 0; i < community.length; i++)
+                community[i] = from + i;
+            nodes.add(community.clone());
+            store.add(community, -1);
+        }
+
+        // readers keep seeing the nodes of live communities while the pool is replaced
+        HashSet<Integer> retired = new HashSet<>();
+        for (int h = 0; h < 2000; h += 3) {
+            assertTrue(store.tryLock(h));
+            store.retire(h);
+            retired.add(h);
+        }
+        boolean[] consistent = {true};
+        Thread reader = new Thread(() -> {
+            for (int round = 0; round < 20; round++)
+                for (int h = 1; h < 2000; h += 3)
+                    consistent[0] &= Arrays.equals(nodes.get(h), store.view(h).getSortedNodes());
+        });
+        reader.start();
+        long before = store.getPoolSize();
+        store.compact();
+        reader.join();
+        assertTrue(consistent[0]);
+
+        assertTrue(store.getPoolSize() < before);
+        for (int h = 0; h < 2000; h++) {
+            if (retired.contains(h))
+                assertEquals(0, store.view(h).getNodeCount());
+            else
+                assertArrayEquals(nodes.get(h), store.view(h).getSortedNodes());
+        }
+        // handles are not reused
+        assertEquals(2000, store.add(new int[]{1, 2}, -1));
+        assertArrayEquals(new int[]{1, 2}, store.view(2000).getSortedNodes());
+    }
+
+    @Test
+    void testHoldNodes() throws InterruptedException {
+        Graph main = path(10);
+        CommunityStore store = new CommunityStore(main);
+        int a = store.add(new int[]{1, 2, 3}, -1);
+        int b = store.add(new int[]{4, 5}, -1);
+
+        store.holdNodes();
+        assertTrue(store.tryLock(a));
+        store.retire(a);
+        Thread compactor = new Thread(store::compact);
+        compactor.start();
+        compactor.join(200);
+        // compaction waits, adding doesn't
+        assertTrue(compactor.isAlive());
+        store.add(new int[]{6, 7}, -1);
+        assertArrayEquals(new int[]{1, 2, 3}, store.getNodes(a));
+        store.releaseNodes();
+        compactor.join();
+
+        assertEquals(0, store.getNodes(a).length);
+        assertArrayEquals(new int[]{4, 5}, store.getNodes(b));
+    }
+}
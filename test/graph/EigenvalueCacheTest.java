@@ -0,0 +1,157 @@
+package graph;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EigenvalueCacheTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void testPersistence() throws IOException {
+        File f = new File(dir, "evs.cache");
+        int[] a = {1, 2, 3};
+        int[] b = {1, 2, 4};
+
+        try (EigenvalueCache cache = new EigenvalueCache(f, 16)) {
+            assertEquals(-1, cache.get(a));
+            cache.put(a, 0.5);
+            assertEquals(0.5, cache.get(a));
+            assertEquals(-1, cache.get(b));
+        }
+
+        try (EigenvalueCache cache = new EigenvalueCache(f, 16)) {
+            assertEquals(1, cache.size());
+            assertEquals(0.5, cache.get(a));
+            assertEquals(-1, cache.get(b));
+        }
+    }
+
+    @Test
+    void testExclusive() throws IOException {
+        File f = new File(dir, "evs.cache");
+        try (EigenvalueCache cache = new EigenvalueCache(f, 16)) {
+            cache.put(new int[]{1, 2, 3}, 0.5);
+            assertThrows(IOException.class, () -> new EigenvalueCache(f, 16));
+        }
+        try (EigenvalueCache cache = new EigenvalueCache(f, 16)) {
+            assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    void testGrow() throws IOException {
+        File f = new File(dir, "evs.cache");
+        int count = 100000;
+
+        // lru smaller than number of entries, so lookups have to go to the file
+        try (EigenvalueCache cache = new EigenvalueCache(f, 10)) {
+            for (int i = 0; i < count; i++)
+                cache.put(new int[]{i, i + 1}, i);
+            assertEquals(count, cache.size());
+        }
+
+        try (EigenvalueCache cache = new EigenvalueCache(f, 10)) {
+            for (int i = 0; i < count; i++)
+                assertEquals(i, cache.get(new int[]{i, i + 1}));
+            assertEquals(-1, cache.get(new int[]{count, count + 1}));
+        }
+    }
+
+    @Test
+    void testConcurrentAccess() throws IOException, InterruptedException {
+        File f = new File(dir, "evs.cache");
+        int perThread = 30000;
+        try (EigenvalueCache cache = new EigenvalueCache(f, 64)) {
+            // each thread puts its own keys, growing the table meanwhile, and reads back the others'
+            Thread[] threads = new Thread[4];
+            boolean[] consistent = {true};
+            for (int t = 0; t < threads.length; t++) {
+                int first = t * perThread;
+                threads[t] = new Thread(() -> {
+                    for (int i = first; i < first + perThread; i++) {
+                        cache.put(new int[]{i, i + 1}, i);
+                        // updating an existing key takes no new slot
+                        cache.put(new int[]{i, i + 1}, i);
+                        int other = (i + perThread) % (threads.length * perThread);
+                        double ev = cache.get(new int[]{other, other + 1});
+                        if (ev != -1 && ev != other || cache.get(new int[]{i, i + 1}) != i)
+                            consistent[0] = false;
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+            assertTrue(consistent[0]);
+            assertEquals(threads.length * perThread, cache.size());
+        }
+        try (EigenvalueCache cache = new EigenvalueCache(f, 64)) {
+            for (int i = 0; i < 4 * perThread; i++)
+                assertEquals(i, cache.get(new int[]{i, i + 1}));
+        }
+    }
+
+    @Test
+    void testSubgraphLookup() throws IOException {
+        AdjacencyList main = new AdjacencyList(4);
+        for (int i = 0; i < 4; i++)
+            for (int j = 0; j < 4; j++)
+                if (i != j)
+                    main.addEdge(i, j);
+
+        File f = new File(dir, "evs.cache");
+        try (EigenvalueCache cache = new EigenvalueCache(f, 16)) {
+            cache.put(new int[]{0, 1, 2}, 1337);
+            Graph.setEigenvalueCache(cache);
+            // node order of the community does not matter
+            assertEquals(1337, new InducedSubgraph(main, new Integer[]{2, 0, 1}).getEigenvalue());
+            double ev = new InducedSubgraph(main, new Integer[]{1, 3}).getEigenvalue();
+            assertEquals(ev, cache.get(new int[]{1, 3}));
+        } finally {
+            Graph.setEigenvalueCache(null);
+        }
+    }
+
+    @Test
+    void testWarmStartWithCache() throws IOException {
+        // two triangles sharing an edge, and a third one on the far side
+        AdjacencyList main = new AdjacencyList(6);
+        int[][] edges = {{0, 1}, {0, 2}, {1, 2}, {1, 3}, {2, 3}, {3, 4}, {3, 5}, {4, 5}};
+        for (int[] e : edges)
+            Fixtures.connect(main, e[0], e[1]);
+        double cold = new InducedSubgraph(main, new int[]{0, 1, 2, 3}).getEigenvalue();
+        double coldAll = new InducedSubgraph(main, new int[]{0, 1, 2, 3, 4, 5}).getEigenvalue();
+
+        File f = new File(dir, "evs.cache");
+        Graph.setKeepFiedlerVectors(true);
+        try (EigenvalueCache cache = new EigenvalueCache(f, 16)) {
+            Graph.setEigenvalueCache(cache);
+            cache.put(new int[]{0, 1, 2, 3}, cold);
+            InducedSubgraph a = new InducedSubgraph(main, new int[]{0, 1, 2});
+            InducedSubgraph b = new InducedSubgraph(main, new int[]{1, 2, 3});
+            InducedSubgraph c = new InducedSubgraph(main, new int[]{3, 4, 5});
+            a.getEigenvalue();
+            b.getEigenvalue();
+            c.getEigenvalue();
+            assertNotNull(a.getFiedlerVector());
+
+            // a cache hit has no fiedler vector, merging it further starts from c's vector alone
+            InducedSubgraph ab = a.merge(b);
+            assertEquals(cold, ab.getEigenvalue());
+            assertNull(ab.getFiedlerVector());
+            InducedSubgraph abc = ab.merge(c);
+            assertEquals(coldAll, abc.getEigenvalue(), 1e-7);
+            assertNotNull(abc.getFiedlerVector());
+            assertEquals(abc.getEigenvalue(), cache.get(new int[]{0, 1, 2, 3, 4, 5}));
+        } finally {
+            Graph.setEigenvalueCache(null);
+            Graph.setKeepFiedlerVectors(false);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * small generated graphs and communities shared by the tests
+ */
+public final class Fixtures {
+    private Fixtures() {
+    }
+
+    /**
+     * add the undirected edge u-v, as both directions
+     */
+    public static void connect(Graph g, int u, int v) {
+        g.addEdge(u, v);
+        g.addEdge(v, u);
+    }
+
+    /**
+     * path 0-1-...-(n-1)
+     */
+    public static Graph path(int n) {
+        Graph g = new AdjacencyList(n);
+        for (int i = 1; i < n; i++)
+            connect(g, i - 1, i);
+        return g;
+    }
+
+    /**
+     * cycle 0-1-...-(n-1)-0
+     */
+    public static Graph ring(int n) {
+        Graph g = new AdjacencyList(n);
+        for (int i = 0; i < n; i++) {
+            g.addEdge(i, (i + n - 1) % n);
+            g.addEdge(i, (i + 1) % n);
+        }
+        return g;
+    }
+
+    /**
+     * @return count windows of 3 to 12 consecutive nodes at random starts, wrapping around the end
+     */
+    public static ArrayList<InducedSubgraph> windows(Graph main, int count, Random rnd) {
+        int n = main.getNodeCount();
+        ArrayList<InducedSubgraph> subgraphs = new ArrayList<>();
+        for (int k = 0; k < count; k++) {
+            int start = rnd.nextInt(n);
+            int[] nodes = new int[3 + rnd.nextInt(10)];
+            for (int i = 0; i < nodes.length; i++)
+                nodes[i] = (start + i) % n;
+            subgraphs.add(new InducedSubgraph(main, nodes));
+        }
+        return subgraphs;
+    }
+
+    /**
+     * @return windows of 5 nodes starting every 3 nodes, so each overlaps its neighbors in 2 nodes
+     */
+    public static ArrayList<InducedSubgraph> spacedWindows(Graph main) {
+        ArrayList<InducedSubgraph> subgraphs = new ArrayList<>();
+        for (int start = 0; start + 5 <= main.getNodeCount(); start += 3)
+            subgraphs.add(new InducedSubgraph(main, new int[]{start, start + 1, start + 2, start + 3, start + 4}));
+        return subgraphs;
+    }
+}
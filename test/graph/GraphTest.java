@@ -6,6 +6,7 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -24,9 +25,10 @@ class GraphTest {
         neighborsOfZero.add(3);
         neighborsOfZero.add(4);
         neighborsOfZero.add(5);
-        gs = new Graph[2];
+        gs = new Graph[3];
         gs[0] = new AdjacencyMatrix(n);
         gs[1] = new AdjacencyList(n);
+        gs[2] = new CompressedSparseRow(n);
 
         for(Graph g : gs)
             for(int i : neighborsOfZero)
@@ -45,6 +47,18 @@ class GraphTest {
         }
     }
 
+    @Test
+    void testForEachNeighbor() {
+        for(Graph g : gs) {
+            ArrayList<Integer> neighbors = new ArrayList<>();
+            g.forEachNeighbor(0, neighbors::add);
+            assertEquals(neighborsOfZero.size(), neighbors.size());
+            assertTrue(neighbors.containsAll(neighborsOfZero));
+            assertEquals(4, g.getDegree(0));
+            assertEquals(0, g.getDegree(1));
+        }
+    }
+
     @Test
     void testAdd() {
         for(Graph g : gs) {
@@ -55,6 +69,41 @@ class GraphTest {
         }
     }
 
+    @Test
+    void testSortedAdjacency() {
+        int n = 300;
+        Graph[] graphs = {new AdjacencyMatrix(n), new AdjacencyList(n), new CompressedSparseRow(n)};
+        Random rnd = new Random(1);
+        boolean[][] edges = new boolean[n][n];
+        for (int i = 0; i < n; i++) {
+            // node 0 is a hub, neighbors arrive in random order and some of them twice
+            int degree = i == 0 ? n - 1 : rnd.nextInt(10);
+            for (int k = 0; k < 2 * degree; k++) {
+                int j = rnd.nextInt(n);
+                boolean added = !edges[i][j];
+                edges[i][j] = true;
+                for (Graph g : graphs)
+                    assertEquals(added, g.addEdge(i, j));
+            }
+        }
+
+        for (Graph g : graphs) {
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < n; i++) {
+                    int[] previous = {-1};
+                    g.forEachNeighbor(i, j -> {
+                        assertTrue(j > previous[0]);
+                        previous[0] = j;
+                    });
+                    for (int j = 0; j < n; j++)
+                        assertEquals(edges[i][j], g.hasEdge(i, j));
+                }
+                // second pass answers hub queries from the hash index
+                assertTrue(g.indexHubs(50) >= 1);
+            }
+        }
+    }
+
     @Test
     void testEv() throws IOException {
         GraphReader gr = new GraphReader();
@@ -66,6 +115,94 @@ class GraphTest {
         assertEquals(0.4817, g.getEigenvalue(), 0.0001);
     }
 
+    @Test
+    void testDenseEvReusesWorkspace() throws IOException {
+        GraphReader gr = new GraphReader();
+        gr.setInputFormat(new GraphReader.Metis());
+        gr.setReturnFormat(new GraphReader.List());
+        Graph medium = gr.fromFile("testResources/medium.metis");
+        Graph medium2 = gr.fromFile("testResources/medium2.metis");
+        ArrayList<Integer> nodes = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            nodes.add(i);
+        Graph small = new InducedSubgraph(medium, nodes);
+
+        // alternate sizes so the per thread workspace is reshaped in both directions
+        double smallEv = DenseSolver.getFiedlerValue(small);
+        assertEquals(0.5781, DenseSolver.getFiedlerValue(medium), 0.0001);
+        assertEquals(smallEv, DenseSolver.getFiedlerValue(small), 0.0000001);
+        assertEquals(0.4817, DenseSolver.getFiedlerValue(medium2), 0.0001);
+        assertEquals(new LanczosSolver(1e-9, 128, 1000).getFiedlerValue(small), smallEv, 0.0000001);
+    }
+
+    @Test
+    void testSparseEv() throws IOException {
+        GraphReader gr = new GraphReader();
+        gr.setInputFormat(new GraphReader.Metis());
+        gr.setReturnFormat(new GraphReader.Csr());
+        LanczosSolver solver = new LanczosSolver(1e-9, 8, 1000);
+        Graph g = gr.fromFile("testResources/medium.metis");
+        assertEquals(0.5781, solver.getFiedlerValue(g), 0.0001);
+        g = gr.fromFile("testResources/medium2.metis");
+        assertEquals(0.4817, solver.getFiedlerValue(g), 0.0001);
+
+        // disconnected graph and isolated nodes
+        for (Graph disconnected : gs) {
+            disconnected.addEdge(2, 0);
+            disconnected.addEdge(3, 0);
+            assertEquals(0, solver.getFiedlerValue(disconnected), 0.0001);
+        }
+    }
+
+    @Test
+    void testWarmStart() {
+        // 20 x 40 grid, a and b overlap in most columns
+        int rows = 20, cols = 40;
+        Graph grid = new AdjacencyList(rows * cols);
+        ArrayList<Integer> nodesOfA = new ArrayList<>(), nodesOfB = new ArrayList<>();
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < cols; c++) {
+                int u = r * cols + c;
+                if (c + 1 < cols) {
+                    grid.addEdge(u, u + 1);
+                    grid.addEdge(u + 1, u);
+                }
+                if (r + 1 < rows) {
+                    grid.addEdge(u, u + cols);
+                    grid.addEdge(u + cols, u);
+                }
+                if (c < 36)
+                    nodesOfA.add(u);
+                if (c >= 4)
+                    nodesOfB.add(u);
+            }
+
+        Graph.setKeepFiedlerVectors(true);
+        try {
+            InducedSubgraph a = new InducedSubgraph(grid, nodesOfA);
+            InducedSubgraph b = new InducedSubgraph(grid, nodesOfB);
+            a.getEigenvalue();
+            b.getEigenvalue();
+            assertEquals(a.getNodeCount(), a.getFiedlerVector().length);
+            InducedSubgraph merged = a.merge(b);
+            double warm = merged.getEigenvalue();
+            assertNotNull(merged.getFiedlerVector());
+
+            Graph.setKeepFiedlerVectors(false);
+            assertEquals(new InducedSubgraph(grid, merged.toNodeList()).getEigenvalue(), warm, 1e-7);
+
+            // a few steps from the fiedler vector are enough, but not from a random start
+            LanczosSolver exact = new LanczosSolver(1e-10, 128, 5000);
+            float[] vector = new float[grid.getNodeCount()];
+            double ev = exact.getFiedlerValue(grid, null, vector);
+            LanczosSolver few = new LanczosSolver(1e-10, 5, 5);
+            assertEquals(ev, few.getFiedlerValue(grid, vector, null), 1e-3 * ev);
+            assertTrue(few.getFiedlerValue(grid) > 1.5 * ev);
+        } finally {
+            Graph.setKeepFiedlerVectors(false);
+        }
+    }
+
     @Test
     void testConnected() throws IOException {
         GraphReader gr = new GraphReader();
@@ -0,0 +1,125 @@
+package graph;
+
+import io.GraphReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * subgraphs built from node arrays, without the node list files InducedSubgraphTest reads
+ */
+class InducedSubgraphNodesTest {
+    Graph main;
+
+    @BeforeEach
+    void reset() throws IOException {
+        GraphReader gr = new GraphReader();
+        gr.setInputFormat(new GraphReader.Metis());
+        gr.setReturnFormat(new GraphReader.Matrix());
+        main = gr.fromFile("testResources/medium.metis");
+    }
+
+    @Test
+    void testNodeLookup() {
+        int[][] orders = {{3, 5, 8, 13, 16}, {13, 3, 16, 8, 5}};
+        for (int[] nodes : orders) {
+            InducedSubgraph sub = new InducedSubgraph(main, nodes.clone());
+            for (int i = 0; i < nodes.length; i++) {
+                assertEquals(nodes[i], sub.getOriginalNodeID(i));
+                assertEquals(i, sub.getNewNodeID(nodes[i]));
+                assertTrue(sub.hasOriginalNode(nodes[i]));
+                assertEquals(nodes[i], (int) sub.toNodeList().get(i));
+            }
+            for (int absent : new int[]{0, 4, 14, 17})
+                assertEquals(-1, sub.getNewNodeID(absent));
+            assertFalse(sub.hasOriginalNode(4));
+            assertEquals(-1, sub.getOriginalNodeID(nodes.length));
+            assertArrayEquals(new int[]{3, 5, 8, 13, 16}, sub.getSortedNodes());
+        }
+    }
+
+    @Test
+    void testMaterialize() {
+        InducedSubgraph sub = new InducedSubgraph(main, new int[]{13, 0, 3, 10, 16, 1});
+        boolean[][] edges = new boolean[sub.getNodeCount()][sub.getNodeCount()];
+        int edgeCount = 0;
+        for (int i = 0; i < sub.getNodeCount(); i++)
+            for (int j = 0; j < sub.getNodeCount(); j++)
+                if (edges[i][j] = main.hasEdge(sub.getOriginalNodeID(i), sub.getOriginalNodeID(j)))
+                    edgeCount++;
+
+        CompressedSparseRow local = sub.materialize();
+        assertSame(local, sub.materialize());
+        assertEquals(sub.getNodeCount(), local.getNodeCount());
+        assertEquals(edgeCount, local.getEdgeCount());
+        assertEquals(edgeCount, sub.getEdgeCount());
+        for (int i = 0; i < sub.getNodeCount(); i++)
+            for (int j = 0; j < sub.getNodeCount(); j++) {
+                assertEquals(edges[i][j], local.hasEdge(i, j));
+                assertEquals(edges[i][j], sub.hasEdge(i, j));
+            }
+
+        InducedSubgraph unmaterialized = new InducedSubgraph(main, new int[]{13, 0, 3, 10, 16, 1});
+        assertEquals(unmaterialized.getNeighbors(0), sub.getNeighbors(0));
+        assertEquals(new InducedSubgraph(main, new int[]{13, 0, 3, 10, 16, 1}).getEigenvalue(), DenseSolver.getFiedlerValue(local), 0.0000001);
+    }
+
+    @Test
+    void testLock() {
+        InducedSubgraph g = new InducedSubgraph(main, new int[]{0, 3, 10, 13});
+        assertTrue(g.tryLock());
+        assertTrue(g.isLocked());
+        assertFalse(g.tryLock());
+        g.unlock();
+        assertFalse(g.isLocked());
+        assertTrue(g.tryLock());
+        g.unlock();
+    }
+
+    @Test
+    void testEdgeOverlapPercent() {
+        Random rnd = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            InducedSubgraph a = randomSubgraph(rnd);
+            InducedSubgraph b = randomSubgraph(rnd);
+            assertEquals(pairwiseEdgeOverlapPercent(a, b), a.getEdgeOverlapPercent(b));
+        }
+        InducedSubgraph g = new InducedSubgraph(main, new int[]{0, 3, 10, 13});
+        assertEquals(Double.MAX_VALUE, g.getEdgeOverlapPercent(g));
+    }
+
+    private InducedSubgraph randomSubgraph(Random rnd) {
+        int[] nodes = rnd.ints(2 + rnd.nextInt(main.getNodeCount() - 2), 0, main.getNodeCount()).distinct().toArray();
+        return new InducedSubgraph(main, nodes);
+    }
+
+    /** definition: edges between nodes only in a and nodes only in b, divided by edges among nodes only in a */
+    private double pairwiseEdgeOverlapPercent(InducedSubgraph a, InducedSubgraph b) {
+        if (b.getNodeCount() < a.getNodeCount())
+            return pairwiseEdgeOverlapPercent(b, a);
+        ArrayList<Integer> onlyA = a.getNonoverlappingNodes(b);
+        ArrayList<Integer> onlyB = b.getNonoverlappingNodes(a);
+        if (onlyA.isEmpty())
+            return Double.MAX_VALUE;
+        int incident = 0;
+        for (int nodeA : onlyA)
+            for (int nodeB : onlyB)
+                if (main.hasEdge(nodeA, nodeB))
+                    incident++;
+        int internal = 0;
+        for (int i : onlyA)
+            for (int j : onlyA)
+                if (main.hasEdge(i, j))
+                    internal++;
+        return (double) incident / (internal / 2);
+    }
+}
@@ -0,0 +1,64 @@
+package graph;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeSetsTest {
+
+    @Test
+    void testSmall() {
+        int[] a = {0, 2, 3, 10, 13};
+        int[] b = {1, 2, 3, 10, 16};
+        assertEquals(3, NodeSets.intersectionSize(a, b));
+        assertArrayEquals(new int[]{2, 3, 10}, NodeSets.intersection(a, b));
+        assertArrayEquals(new int[]{0, 13}, NodeSets.difference(a, b));
+        assertArrayEquals(new int[]{1, 16}, NodeSets.difference(b, a));
+        assertArrayEquals(new int[]{0, 1, 2, 3, 10, 13, 16}, NodeSets.union(a, b));
+        assertArrayEquals(new int[0], NodeSets.difference(a, a));
+        assertArrayEquals(a, NodeSets.union(a, new int[0]));
+        assertEquals(0, NodeSets.intersectionSize(a, new int[0]));
+    }
+
+    @Test
+    void testRandom() {
+        Random rnd = new Random(42);
+        // sizes cover merging as well as searching the longer array
+        int[][] sizes = {{50, 60}, {10, 2000}, {2000, 10}, {3000, 3000}};
+        for (int[] size : sizes) {
+            int[] a = randomSet(rnd, size[0], 10000);
+            int[] b = randomSet(rnd, size[1], 10000);
+            TreeSet<Integer> setB = new TreeSet<>();
+            for (int node : b)
+                setB.add(node);
+
+            int[] expectedIntersection = Arrays.stream(a).filter(setB::contains).toArray();
+            int[] expectedDifference = Arrays.stream(a).filter(node -> !setB.contains(node)).toArray();
+            int[] expectedUnion = Arrays.stream(concat(a, b)).sorted().distinct().toArray();
+
+            assertEquals(expectedIntersection.length, NodeSets.intersectionSize(a, b));
+            assertArrayEquals(expectedIntersection, NodeSets.intersection(a, b));
+            assertArrayEquals(expectedDifference, NodeSets.difference(a, b));
+            assertArrayEquals(expectedUnion, NodeSets.union(a, b));
+
+            BitSet bits = NodeSets.toBitSet(b);
+            assertEquals(expectedIntersection.length, NodeSets.intersectionSize(a, bits));
+            assertArrayEquals(expectedDifference, NodeSets.difference(a, bits));
+        }
+    }
+
+    private static int[] randomSet(Random rnd, int size, int range) {
+        return rnd.ints(size, 0, range).sorted().distinct().toArray();
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+}
@@ -0,0 +1,133 @@
+package index;
+
+import graph.Graph;
+import graph.InducedSubgraph;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static graph.Fixtures.ring;
+import static graph.Fixtures.windows;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InverseIndexTest {
+
+    @Test
+    void testConcurrentMerges() throws InterruptedException {
+        Graph main = ring(5000);
+        ArrayList<InducedSubgraph> subgraphs = windows(main, 3000, new Random(3));
+        HashSet<Integer> covered = new HashSet<>();
+        for (InducedSubgraph s : subgraphs)
+            covered.addAll(s.toNodeList());
+
+        InverseIndex index = new InverseIndex(main, subgraphs);
+        AtomicInteger merges = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                while (merges.get() < 1000) {
+                    MergeCandidate candidate = index.getCandidate();
+                    if (candidate.next()) {
+                        candidate.createMerged();
+                        index.update(candidate);
+                        merges.incrementAndGet();
+                    }
+                    candidate.unlock();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        // every merge replaces two communities by one
+        Collection<InducedSubgraph> live = index.getCommunities();
+        assertEquals(subgraphs.size() - merges.get(), live.size());
+
+        HashSet<Integer> stillCovered = new HashSet<>();
+        for (InducedSubgraph s : live) {
+            assertFalse(s.isLocked());
+            for (int node : s.getSortedNodes()) {
+                stillCovered.add(node);
+                boolean found = false;
+                for (InducedSubgraph t : index.getSubgraphs(node))
+                    found |= t.equals(s);
+                assertTrue(found);
+            }
+        }
+        assertEquals(covered, stillCovered);
+
+        for (int node = 0; node < main.getNodeCount(); node++) {
+            InducedSubgraph[] bucket = index.getSubgraphs(node);
+            for (int i = 0; i < bucket.length; i++) {
+                assertTrue(live.contains(bucket[i]));
+                assertTrue(bucket[i].hasOriginalNode(node));
+                if (i > 0)
+                    assertTrue(bucket[i - 1].compareTo(bucket[i]) <= 0);
+            }
+        }
+    }
+
+    @Test
+    void testRetiredCannotBeLocked() {
+        Graph main = ring(20);
+        InducedSubgraph a = new InducedSubgraph(main, new int[]{0, 1, 2});
+        InducedSubgraph b = new InducedSubgraph(main, new int[]{2, 3, 4});
+        ArrayList<InducedSubgraph> subgraphs = new ArrayList<>();
+        subgraphs.add(a);
+        subgraphs.add(b);
+        InverseIndex index = new InverseIndex(main, subgraphs);
+
+        // a candidate started before the merge still sees a and b in its snapshot
+        InducedSubgraph[] snapshot = index.getSubgraphs(2);
+        assertTrue(a.tryLock());
+        MergeCandidate candidate = new MergeCandidate(a, snapshot);
+        assertTrue(candidate.next());
+        candidate.createMerged();
+        index.update(candidate);
+        candidate.unlock();
+
+        assertTrue(a.isRetired());
+        assertTrue(b.isRetired());
+        assertFalse(a.tryLock());
+        assertFalse(new MergeCandidate(candidate.merged, snapshot).next());
+        assertEquals(1, index.getSubgraphs(2).length);
+        assertEquals(candidate.merged, index.getSubgraphs(0)[0]);
+        assertEquals(0, index.getSubgraphs(10).length);
+    }
+
+    @Test
+    void testRebuild() {
+        Graph main = ring(500);
+        InverseIndex index = new InverseIndex(main, windows(main, 300, new Random(5)));
+        for (int merges = 0; merges < 100; ) {
+            MergeCandidate candidate = index.getCandidate();
+            if (candidate.next()) {
+                candidate.createMerged();
+                index.update(candidate);
+                merges++;
+            }
+            candidate.unlock();
+        }
+
+        // merges so far are only in the delta buffers, the rebuild must not change what readers see
+        int[][] before = new int[main.getNodeCount()][];
+        for (int node = 0; node < before.length; node++)
+            before[node] = index.getHandles(node);
+        index.rebuild();
+        for (int node = 0; node < before.length; node++) {
+            int[] handles = index.getHandles(node);
+            assertArrayEquals(before[node], handles);
+            for (int i = 0; i < handles.length; i++) {
+                assertFalse(index.getStore().isRetired(handles[i]));
+                if (i > 0)
+                    assertTrue(index.getStore().getNodeCount(handles[i - 1]) <= index.getStore().getNodeCount(handles[i]));
+            }
+        }
+        assertEquals(200, index.getCommunities().size());
+    }
+}
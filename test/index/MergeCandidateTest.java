@@ -0,0 +1,112 @@
+package index;
+
+import graph.AdjacencyList;
+import graph.Fixtures;
+import graph.Graph;
+import graph.InducedSubgraph;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergeCandidateTest {
+
+    /**
+     * path 0-1-...-19 with a chord 0-5, so merging with different partners changes the eigenvalue differently
+     */
+    private static Graph path() {
+        Graph g = Fixtures.path(20);
+        Fixtures.connect(g, 0, 5);
+        return g;
+    }
+
+    private static InducedSubgraph range(Graph g, int from, int to) {
+        int[] nodes = new int[to - from];
+        for (int i = from; i < to; i++)
+            nodes[i - from] = i;
+        return new InducedSubgraph(g, nodes);
+    }
+
+    @Test
+    void testNextBest() {
+        Graph g = path();
+        InducedSubgraph a = range(g, 2, 8);
+        InducedSubgraph[] source = {range(g, 0, 4), a, range(g, 6, 10), range(g, 4, 12), range(g, 7, 9), range(g, 12, 14)};
+        source[4].tryLock();
+        source[4].retire();
+
+        MergeCandidate candidate = new MergeCandidate(a, source);
+        // the first group holds 3 partners, a is skipped
+        List<MergeCandidate> best = candidate.nextBest(3, c -> c.nodesOverlapping(0.2), true);
+        assertEquals(3, best.size());
+        for (int i = 0; i < best.size(); i++) {
+            assertSame(a, best.get(i).a);
+            assertNotNull(best.get(i).merged);
+            assertFalse(best.get(i).b.isLocked());
+            if (i > 0)
+                assertTrue(best.get(i - 1).getDelta() >= best.get(i).getDelta());
+        }
+        assertTrue(candidate.hasNext());
+
+        // the retired partner is skipped, the last one doesn't overlap
+        assertTrue(candidate.nextBest(3, c -> c.nodesOverlapping(0.2), false).isEmpty());
+        assertFalse(candidate.hasNext());
+        assertNull(candidate.b);
+    }
+
+    @Test
+    void testLock() {
+        Graph g = path();
+        InducedSubgraph a = range(g, 2, 8);
+        InducedSubgraph b = range(g, 0, 4);
+        InducedSubgraph c = range(g, 6, 10);
+        assertTrue(a.tryLock());
+        MergeCandidate candidate = new MergeCandidate(a, new InducedSubgraph[]{b, c});
+        List<MergeCandidate> best = candidate.nextBest(2, x -> true, false);
+        assertEquals(2, best.size());
+
+        // another thread holds the best partner, so the next best is taken
+        assertTrue(best.get(0).b.tryLock());
+        assertFalse(candidate.lock(best.get(0)));
+        assertTrue(candidate.lock(best.get(1)));
+        assertSame(best.get(1).b, candidate.b);
+        assertSame(best.get(1).merged, candidate.merged);
+        assertTrue(candidate.b.isLocked());
+
+        candidate.unlock();
+        best.get(0).b.unlock();
+        assertFalse(a.isLocked());
+        assertFalse(b.isLocked());
+        assertFalse(c.isLocked());
+    }
+
+    @Test
+    void testBounds() {
+        Random rnd = new Random(5);
+        Graph g = new AdjacencyList(300);
+        for (int k = 0; k < 1500; k++) {
+            int i = rnd.nextInt(300), j = Math.floorMod(i + rnd.nextInt(21) - 10, 300);
+            if (i != j && !g.hasEdge(i, j))
+                Fixtures.connect(g, i, j);
+        }
+
+        for (int k = 0; k < 50; k++) {
+            int from = rnd.nextInt(200);
+            InducedSubgraph a = range(g, from, from + 10 + rnd.nextInt(40));
+            int fromB = from + rnd.nextInt(a.getNodeCount());
+            InducedSubgraph b = range(g, fromB, Math.min(300, fromB + 10 + rnd.nextInt(40)));
+            MergeCandidate candidate = new MergeCandidate(a);
+            candidate.pairWith(b);
+
+            double ev = candidate.getMergedEv();
+            assertTrue(candidate.getMergedEvCutBound() >= ev - 1e-9);
+            // a fresh merged graph, the eigenvalue above is cached
+            candidate.createMerged();
+            assertTrue(candidate.getMergedEvLanczosBound(2) >= ev - 1e-9);
+            assertTrue(candidate.getMergedEvLanczosBound(10) >= ev - 1e-9);
+            assertTrue(candidate.getDelta(candidate.getMergedEvCutBound()) >= candidate.getDelta() - 1e-9);
+        }
+    }
+}
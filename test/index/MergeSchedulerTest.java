@@ -0,0 +1,71 @@
+package index;
+
+import graph.Graph;
+import graph.InducedSubgraph;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static graph.Fixtures.ring;
+import static graph.Fixtures.windows;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergeSchedulerTest {
+    private static final MergeScheduler.Policy HALF_OVERLAP = candidate -> candidate.nodesOverlapping(0.5);
+
+    /**
+     * @return communities left after a run, as strings of their sorted nodes
+     */
+    private static TreeSet<String> run(int threads, long seed) throws InterruptedException {
+        Graph main = ring(20000);
+        ArrayList<InducedSubgraph> subgraphs = windows(main, 5000, new Random(7));
+        InverseIndex index = new InverseIndex(main, subgraphs);
+        MergeScheduler scheduler = new MergeScheduler(index, HALF_OVERLAP, threads, seed);
+        assertTrue(scheduler.run(subgraphs, Long.MAX_VALUE));
+
+        TreeSet<String> result = new TreeSet<>();
+        for (InducedSubgraph s : index.getCommunities())
+            result.add(s.toNodeList().toString());
+        return result;
+    }
+
+    @Test
+    void testReproducible() throws InterruptedException {
+        TreeSet<String> single = run(1, 42);
+        assertEquals(single, run(4, 42));
+        assertEquals(single, run(3, 42));
+    }
+
+    @Test
+    void testNoMergeableLeft() throws InterruptedException {
+        Graph main = ring(2000);
+        ArrayList<InducedSubgraph> subgraphs = windows(main, 1500, new Random(11));
+        InverseIndex index = new InverseIndex(main, subgraphs);
+        MergeScheduler scheduler = new MergeScheduler(index, HALF_OVERLAP, 4, 1);
+        assertTrue(scheduler.run(subgraphs, Long.MAX_VALUE));
+        assertTrue(index.getCommunities().size() < subgraphs.size());
+
+        // the policy is not symmetric, so both orders of every overlapping pair are checked
+        for (InducedSubgraph a : index.getCommunities())
+            for (int node : a.getSortedNodes())
+                for (InducedSubgraph b : index.getSubgraphs(node)) {
+                    if (b.equals(a))
+                        continue;
+                    MergeCandidate candidate = new MergeCandidate(a);
+                    candidate.pairWith(b);
+                    assertFalse(HALF_OVERLAP.mergeable(candidate));
+                }
+    }
+
+    @Test
+    void testDeadline() throws InterruptedException {
+        Graph main = ring(100);
+        ArrayList<InducedSubgraph> subgraphs = windows(main, 50, new Random(3));
+        InverseIndex index = new InverseIndex(main, subgraphs);
+        MergeScheduler scheduler = new MergeScheduler(index, HALF_OVERLAP, 2, 1);
+        assertFalse(scheduler.run(subgraphs, 0));
+        assertEquals(subgraphs.size(), index.getCommunities().size());
+    }
+}
@@ -0,0 +1,159 @@
+package io;
+
+import graph.Fixtures;
+import graph.Graph;
+import graph.InducedSubgraph;
+import index.InverseIndex;
+import index.MergeCandidate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.TreeSet;
+
+import static graph.Fixtures.ring;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommunityCheckpointTest {
+
+    /**
+     * windows of 5 nodes starting every 3 nodes, every other one with an eigenvalue
+     */
+    private static ArrayList<InducedSubgraph> windows(Graph main) {
+        ArrayList<InducedSubgraph> subgraphs = Fixtures.spacedWindows(main);
+        for (int k = 0; k < subgraphs.size(); k += 2)
+            subgraphs.get(k).setEigenvalue(3 * k / 100d);
+        return subgraphs;
+    }
+
+    /**
+     * merge the first community with its right neighbor count times
+     */
+    private static void mergeFirst(InverseIndex index, ArrayList<InducedSubgraph> order, int count) {
+        for (int k = 0; k < count; k++) {
+            InducedSubgraph a = order.get(0);
+            InducedSubgraph b = order.get(1);
+            assertTrue(a.tryLock());
+            MergeCandidate pair = new MergeCandidate(a, new InducedSubgraph[]{b});
+            assertTrue(pair.next());
+            pair.createMerged();
+            pair.merged.setEigenvalue(k);
+            index.update(pair);
+            pair.unlock();
+            order.remove(1);
+            order.set(0, pair.merged);
+        }
+    }
+
+    private static TreeSet<String> describe(Collection<InducedSubgraph> communities) {
+        TreeSet<String> result = new TreeSet<>();
+        for (InducedSubgraph c : communities)
+            result.add(c.toNodeList() + " " + c.getKnownEigenvalue());
+        return result;
+    }
+
+    @Test
+    void testRestore(@TempDir File dir) throws IOException {
+        Graph main = ring(300);
+        assertNull(CommunityCheckpoint.restore(dir, main));
+
+        ArrayList<InducedSubgraph> subgraphs = windows(main);
+        InverseIndex index = new InverseIndex(main, subgraphs);
+        CommunityCheckpoint checkpoint = new CommunityCheckpoint(dir, 60_000);
+        checkpoint.start(index.getStore());
+        index.setMergeListener(checkpoint::merged);
+        assertEquals(describe(subgraphs), describe(CommunityCheckpoint.restore(dir, main)));
+
+        ArrayList<InducedSubgraph> order = new ArrayList<>(subgraphs);
+        mergeFirst(index, order, 10);
+        checkpoint.flush();
+        assertEquals(describe(index.getCommunities()), describe(CommunityCheckpoint.restore(dir, main)));
+
+        // queued merges are written on close
+        mergeFirst(index, order, 5);
+        checkpoint.close();
+        ArrayList<InducedSubgraph> restored = CommunityCheckpoint.restore(dir, main);
+        assertEquals(describe(index.getCommunities()), describe(restored));
+        assertEquals(subgraphs.size() - 15, restored.size());
+    }
+
+    @Test
+    void testCloseWhileWriting(@TempDir File dir) throws IOException {
+        Graph main = ring(3000);
+        ArrayList<InducedSubgraph> subgraphs = windows(main);
+        InverseIndex index = new InverseIndex(main, subgraphs);
+        // the writer flushes all the time, close must not interrupt it in the middle of writing
+        CommunityCheckpoint checkpoint = new CommunityCheckpoint(dir, 1);
+        checkpoint.start(index.getStore());
+        index.setMergeListener(checkpoint::merged);
+
+        ArrayList<InducedSubgraph> order = new ArrayList<>(subgraphs);
+        mergeFirst(index, order, 500);
+        checkpoint.close();
+        assertEquals(describe(index.getCommunities()), describe(CommunityCheckpoint.restore(dir, main)));
+    }
+
+    @Test
+    void testTornJournal(@TempDir File dir) throws IOException {
+        Graph main = ring(300);
+        ArrayList<InducedSubgraph> subgraphs = windows(main);
+        InverseIndex index = new InverseIndex(main, subgraphs);
+        CommunityCheckpoint checkpoint = new CommunityCheckpoint(dir, 60_000);
+        checkpoint.start(index.getStore());
+        index.setMergeListener(checkpoint::merged);
+
+        ArrayList<InducedSubgraph> order = new ArrayList<>(subgraphs);
+        mergeFirst(index, order, 3);
+        checkpoint.flush();
+        TreeSet<String> afterThree = describe(index.getCommunities());
+        mergeFirst(index, order, 1);
+        checkpoint.close();
+
+        // the last record is cut off, or its last byte is damaged
+        File journal = new File(dir, "communities.journal");
+        byte[] complete = Files.readAllBytes(journal.toPath());
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.setLength(complete.length - 3);
+        }
+        assertEquals(afterThree, describe(CommunityCheckpoint.restore(dir, main)));
+
+        complete[complete.length - 1] ^= 1;
+        Files.write(journal.toPath(), complete);
+        assertEquals(afterThree, describe(CommunityCheckpoint.restore(dir, main)));
+
+        // a damaged base is an error, not an empty checkpoint
+        File base = new File(dir, "communities.base");
+        byte[] bytes = Files.readAllBytes(base.toPath());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(base.toPath(), bytes);
+        assertThrows(FileFormatException.class, () -> CommunityCheckpoint.restore(dir, main));
+    }
+
+    @Test
+    void testStaleJournal(@TempDir File dir) throws IOException {
+        Graph main = ring(300);
+        ArrayList<InducedSubgraph> subgraphs = windows(main);
+        InverseIndex index = new InverseIndex(main, subgraphs);
+        CommunityCheckpoint checkpoint = new CommunityCheckpoint(dir, 60_000);
+        checkpoint.start(index.getStore());
+        index.setMergeListener(checkpoint::merged);
+        mergeFirst(index, new ArrayList<>(subgraphs), 4);
+        checkpoint.close();
+        File journal = new File(dir, "communities.journal");
+        byte[] oldJournal = Files.readAllBytes(journal.toPath());
+
+        // resume writes a new base; if the process dies before the new journal replaces the old one,
+        // the old journal must not be applied again
+        ArrayList<InducedSubgraph> restored = CommunityCheckpoint.restore(dir, main);
+        CommunityCheckpoint resumed = new CommunityCheckpoint(dir, 60_000);
+        resumed.start(new InverseIndex(main, restored).getStore());
+        resumed.close();
+        Files.write(journal.toPath(), oldJournal);
+        assertEquals(describe(restored), describe(CommunityCheckpoint.restore(dir, main)));
+    }
+}
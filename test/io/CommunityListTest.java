@@ -0,0 +1,90 @@
+package io;
+
+import graph.AdjacencyList;
+import graph.Graph;
+import graph.InducedSubgraph;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommunityListTest {
+
+    @Test
+    void testRead(@TempDir File dir) throws IOException {
+        File f = new File(dir, "communities.txt");
+        Files.writeString(f.toPath(), "% header\n0.5 3 1 2\r\n\n  1.5E-3\t7 0 % comment\n   \n2 5\n% last\n4");
+
+        CommunityList withEvs = CommunityList.read(f, true, 2);
+        assertEquals(4, withEvs.size());
+        assertArrayEquals(new int[]{3, 1, 2}, withEvs.getNodes(0));
+        assertArrayEquals(new int[]{7, 0}, withEvs.getNodes(1));
+        assertArrayEquals(new int[]{5}, withEvs.getNodes(2));
+        assertArrayEquals(new int[0], withEvs.getNodes(3));
+        assertEquals(0.5, withEvs.getEigenvalue(0));
+        assertEquals(1.5e-3, withEvs.getEigenvalue(1));
+        assertEquals(4, withEvs.getEigenvalue(3));
+
+        Graph main = new AdjacencyList(8);
+        main.addEdge(1, 2);
+        main.addEdge(2, 1);
+        ArrayList<InducedSubgraph> every2nd = withEvs.toSubgraphs(main, 2);
+        assertEquals(2, every2nd.size());
+        assertEquals("[3, 1, 2]", every2nd.get(0).toNodeList().toString());
+        assertEquals(2, every2nd.get(1).getEigenvalue());
+
+        Files.writeString(f.toPath(), "3 1 2\n7 0\n");
+        CommunityList nodesOnly = CommunityList.read(f, false, 1);
+        assertFalse(nodesOnly.hasEigenvalues());
+        assertArrayEquals(new int[]{7, 0}, nodesOnly.getNodes(1));
+        assertThrows(UnsupportedOperationException.class, () -> nodesOnly.getEigenvalue(0));
+    }
+
+    @Test
+    void testChunks(@TempDir File dir) throws IOException {
+        // large enough for several chunks, which must come out in file order
+        Random rnd = new Random(1);
+        ArrayList<int[]> expected = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 12 << 20) {
+            int[] nodes = new int[1 + rnd.nextInt(50)];
+            sb.append(expected.size());
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = rnd.nextInt(1_000_000);
+                sb.append(' ').append(nodes[i]);
+            }
+            sb.append('\n');
+            expected.add(nodes);
+        }
+        File f = new File(dir, "communities.txt");
+        Files.writeString(f.toPath(), sb);
+
+        CommunityList list = CommunityList.read(f, true, 4);
+        assertEquals(expected.size(), list.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), list.getNodes(i));
+            assertEquals(i, list.getEigenvalue(i));
+        }
+    }
+
+    @Test
+    void testErrors(@TempDir File dir) throws IOException {
+        File f = new File(dir, "communities.txt");
+        Files.writeString(f.toPath(), "1 2\n3 x\n");
+        FileFormatException e = assertThrows(FileFormatException.class, () -> CommunityList.read(f, false, 1));
+        assertTrue(e.getMessage().contains("byte 6"), e.getMessage());
+
+        Files.writeString(f.toPath(), "0.1 2\nabc 3\n");
+        assertThrows(FileFormatException.class, () -> CommunityList.read(f, true, 1));
+        Files.writeString(f.toPath(), "1 2.5\n");
+        assertThrows(FileFormatException.class, () -> CommunityList.read(f, false, 1));
+        Files.writeString(f.toPath(), "1 99999999999\n");
+        assertThrows(FileFormatException.class, () -> CommunityList.read(f, false, 1));
+    }
+}
@@ -2,12 +2,15 @@ package io;
 
 import graph.Graph;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -46,6 +49,158 @@ class GraphReaderTest {
         assertEquals(s.split("\\.")[0], g.getName());
     }
 
+    @ParameterizedTest
+    @ValueSource(strings = {"tiny.metis", "medium.metis", "medium2.metis"})
+    public void testCsr(String s) throws Exception {
+        String testgraph = "testResources/" + s;
+
+        GraphReader gr = new GraphReader();
+        gr.setInputFormat(new GraphReader.Metis());
+        gr.setReturnFormat(new GraphReader.List());
+        Graph list = gr.fromFile(testgraph);
+
+        gr.setReturnFormat(new GraphReader.Csr());
+        Graph csr = gr.fromFile(testgraph);
+
+        assertEquals(list.getNodeCount(), csr.getNodeCount());
+        assertEquals(list.getEdgeCount(), csr.getEdgeCount());
+        assertEquals(list.toString(), csr.toString());
+        for (int i = 0; i < list.getNodeCount(); i++)
+            for (int j = 0; j < list.getNodeCount(); j++)
+                assertEquals(list.hasEdge(i, j), csr.hasEdge(i, j));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tiny", "medium", "medium2"})
+    public void testBinary(String s, @TempDir File dir) throws Exception {
+        GraphReader gr = new GraphReader();
+        gr.setInputFormat(new GraphReader.Metis());
+        gr.setReturnFormat(new GraphReader.List());
+        Graph metis = gr.fromFile("testResources/" + s + ".metis");
+
+        GraphWriter gw = new GraphWriter();
+        gw.setFormat(new GraphWriter.Binary());
+        gw.toFile(metis, new File(dir, s).getPath());
+        File binary = new File(dir, s + ".csr");
+
+        gr.setInputFormat(new GraphReader.Binary());
+        gr.setReturnFormat(new GraphReader.Mapped());
+        Graph mapped = gr.fromFile(binary);
+        gr.setReturnFormat(new GraphReader.List());
+        Graph copied = gr.fromFile(binary);
+
+        for (Graph g : new Graph[]{mapped, copied}) {
+            assertEquals(metis.getNodeCount(), g.getNodeCount());
+            assertEquals(metis.getEdgeCount(), g.getEdgeCount());
+            assertEquals(metis.toString(), g.toString());
+            assertEquals(s, g.getName());
+        }
+        assertEquals(metis.getEigenvalue(), mapped.getEigenvalue(), 0.0000001);
+    }
+
+    @Test
+    public void testBadBinary(@TempDir File dir) throws IOException {
+        File notBinary = new File(dir, "tiny.csr");
+        try (FileWriter fw = new FileWriter(notBinary)) {
+            fw.write("4 3\n1\n0 2 3\n1\n1\n");
+        }
+
+        GraphReader gr = new GraphReader();
+        gr.setInputFormat(new GraphReader.Binary());
+        gr.setReturnFormat(new GraphReader.Mapped());
+        assertThrows(FileFormatException.class, () -> gr.fromFile(notBinary));
+    }
+
+    @Test
+    public void testMetisSyntax() throws IOException {
+        GraphReader gr = new GraphReader();
+        gr.setInputFormat(new GraphReader.Metis());
+        gr.setReturnFormat(new GraphReader.List());
+
+        String unix = "% comment\n4 3\n1\n0 2 3\n1\n1\n";
+        String windows = "% comment\r\n4 3 0\r\n1 % comment\r\n0\t2 3\r\n1\r\n1\r\n";
+        Graph expected = gr.fromString(unix);
+        Graph g = gr.fromString(windows);
+        assertEquals(4, g.getNodeCount());
+        assertEquals(expected.toString(), g.toString());
+
+        assertThrows(FileFormatException.class, () -> gr.fromString("4 3\n1\n0 2.5 3\n1\n1\n"));
+        assertThrows(FileFormatException.class, () -> gr.fromString("4 3\n1\n0 x 3\n1\n1\n"));
+        assertThrows(FileFormatException.class, () -> gr.fromString("4 3\n1\n0 99999999999 3\n1\n1\n"));
+        assertThrows(FileFormatException.class, () -> gr.fromString("% only a comment\n"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tiny.metis", "medium.metis", "medium2.metis"})
+    public void testParallel(String s) throws Exception {
+        String testgraph = "testResources/" + s;
+
+        GraphReader gr = new GraphReader();
+        gr.setInputFormat(new GraphReader.Metis());
+        gr.setReturnFormat(new GraphReader.List());
+        Graph sequential = gr.fromFile(testgraph);
+
+        gr.setInputFormat(new GraphReader.Metis(4));
+        Graph list = gr.fromFile(testgraph);
+        gr.setReturnFormat(new GraphReader.Csr());
+        Graph csr = gr.fromFile(testgraph);
+        for (Graph parallel : new Graph[]{list, csr}) {
+            assertEquals(sequential.getNodeCount(), parallel.getNodeCount());
+            assertEquals(sequential.getEdgeCount(), parallel.getEdgeCount());
+            assertEquals(sequential.toString(), parallel.toString());
+            assertEquals(s.split("\\.")[0], parallel.getName());
+        }
+    }
+
+    @Test
+    public void testParallelChunks(@TempDir File dir) throws IOException {
+        // ring where every node is connected to 3 nodes on either side, large enough to be split into several chunks
+        // some rows list a neighbor twice, which counts towards the edge count in the header but is dropped
+        int n = 300000;
+        File f = new File(dir, "ring.metis");
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(f))) {
+            bw.write(n + " " + (3 * n + n / 1000) + "\n");
+            for (int i = 0; i < n; i++) {
+                for (int d = -3; d <= 3; d++)
+                    if (d != 0)
+                        bw.write((i + d + n) % n + " ");
+                if (i % 1000 == 0)
+                    bw.write((i + 1) % n + " " + (i + 1) % n + " ");
+                bw.write(i % 7 == 0 ? "\r\n" : "\n");
+            }
+        }
+        assertTrue(f.length() > 8 << 20);
+
+        GraphReader gr = new GraphReader();
+        gr.setReturnFormat(new GraphReader.Csr());
+        gr.setInputFormat(new GraphReader.Metis());
+        Graph sequential = gr.fromFile(f);
+        gr.setInputFormat(new GraphReader.Metis(4));
+        Graph parallel = gr.fromFile(f);
+
+        assertEquals(6 * n, parallel.getEdgeCount());
+        assertEquals(sequential.getEdgeCount(), parallel.getEdgeCount());
+        for (int i = 0; i < n; i++)
+            assertEquals(sequential.getNeighbors(i), parallel.getNeighbors(i));
+    }
+
+    @Test
+    public void testParallelErrors(@TempDir File dir) throws IOException {
+        GraphReader gr = new GraphReader();
+        gr.setReturnFormat(new GraphReader.List());
+        gr.setInputFormat(new GraphReader.Metis(4));
+
+        String[] bad = {"2 3\n1\n0 2 3\n1\n1\n", "8 3\n1\n0 2 3\n1\n1\n", "4 3\n1\n0 2\n1\n1\n", "4 3\n1\n0 x 3\n1\n1\n", "4 3\n1\n0 2 3\n1\n1\n0\n"};
+        Class<?>[] expected = {IllegalArgumentException.class, FileFormatException.class, FileFormatException.class, FileFormatException.class, IllegalArgumentException.class};
+        for (int i = 0; i < bad.length; i++) {
+            File f = new File(dir, i + ".metis");
+            try (FileWriter fw = new FileWriter(f)) {
+                fw.write(bad[i]);
+            }
+            assertThrows(expected[i].asSubclass(Throwable.class), () -> gr.fromFile(f));
+        }
+    }
+
     @Test
     public void testBadEdges() {
         String testgraph = "resources/badEdges.metis";
@@ -0,0 +1,77 @@
+package io;
+
+import graph.Graph;
+import graph.InducedSubgraph;
+import index.InverseIndex;
+import index.MergeCandidate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import static graph.Fixtures.path;
+import static graph.Fixtures.spacedWindows;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergeLogTest {
+
+    @Test
+    void testLog(@TempDir File dir) throws IOException {
+        Graph main = path(100);
+        ArrayList<InducedSubgraph> subgraphs = spacedWindows(main);
+        InverseIndex index = new InverseIndex(main, subgraphs);
+        File f = new File(dir, "merges.log");
+        MergeLog log = new MergeLog(f, subgraphs);
+        index.setMergeListener(log::merged);
+
+        // merge the first community with its right neighbor three times, then the last two
+        ArrayList<InducedSubgraph> order = new ArrayList<>(subgraphs);
+        for (int k = 0; k < 4; k++) {
+            int first = k < 3 ? 0 : order.size() - 2;
+            InducedSubgraph a = order.get(first);
+            assertTrue(a.tryLock());
+            MergeCandidate pair = new MergeCandidate(a, new InducedSubgraph[]{order.get(first + 1)});
+            assertTrue(pair.next());
+            pair.createMerged();
+            pair.merged.setEigenvalue(k);
+            index.update(pair);
+            pair.unlock();
+            order.remove(first + 1);
+            order.set(first, pair.merged);
+        }
+        log.close();
+
+        int n = subgraphs.size();
+        int[][] expected = {{0, 1, n}, {n, 2, n + 1}, {n + 1, 3, n + 2}, {n - 2, n - 1, n + 3}};
+        try (MergeLog.Reader reader = new MergeLog.Reader(f)) {
+            assertEquals(n, reader.getInitialCount());
+            long nanos = 0;
+            for (int k = 0; k < expected.length; k++) {
+                MergeLog.Event e = reader.next();
+                assertNotNull(e);
+                assertArrayEquals(expected[k], new int[]{e.a, e.b, e.merged});
+                assertEquals(k, e.ev);
+                assertTrue(e.nanos >= nanos);
+                nanos = e.nanos;
+            }
+            assertNull(reader.next());
+        }
+
+        // a run killed while writing leaves a torn event, which is ignored
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+        try (MergeLog.Reader reader = new MergeLog.Reader(f)) {
+            for (int k = 0; k < expected.length - 1; k++)
+                assertNotNull(reader.next());
+            assertNull(reader.next());
+        }
+
+        Files.write(f.toPath(), new byte[]{1, 2, 3});
+        assertThrows(FileFormatException.class, () -> new MergeLog.Reader(f));
+    }
+}